@@ -14,11 +14,16 @@ import androidx.core.view.ViewCompat
 import androidx.core.view.WindowInsetsCompat
 import androidx.health.connect.client.HealthConnectClient
 import androidx.health.connect.client.PermissionController
+import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
 import com.example.healthconnectdemo.databinding.ActivityMainBinding
 import com.example.healthconnectdemo.healthconnect.HealthConnectManager
 import com.example.healthconnectdemo.viewmodel.MainViewModel
 import dagger.hilt.android.AndroidEntryPoint
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.launch
 import javax.inject.Inject
 
@@ -66,6 +71,12 @@ class MainActivity : AppCompatActivity() {
         viewModel.checkPermissions()
     }
 
+    override fun onStop() {
+        super.onStop()
+        // Don't leave buffered readings waiting while the app is in the background
+        viewModel.flushPendingWrites()
+    }
+
     private fun requestHealthConnectPermissions() {
         requestPermissions()
     }
@@ -103,6 +114,7 @@ class MainActivity : AppCompatActivity() {
 
     private val permissionLauncher =
         registerForActivityResult(PermissionController.createRequestPermissionResultContract()) { result ->
+            healthConnectManager.onPermissionsResult(result)
             if (result.containsAll(healthConnectManager.permissions)) {
                 Log.d(TAG, "Permissions granted successfully!")
                 Toast.makeText(
@@ -186,6 +198,8 @@ class MainActivity : AppCompatActivity() {
     }
 
     private fun openHealthConnectApp() {
+        // Permissions may change in Health Connect, so re-check when the user comes back
+        healthConnectManager.invalidatePermissionCache()
         try {
             // Try to open Health Connect app directly
             val intent =
@@ -268,42 +282,69 @@ class MainActivity : AppCompatActivity() {
     }
 
     private fun observeViewModel() {
-        viewModel.permissionStatus.observe(this) { hasPermissions ->
-            val statusText =
-                if (hasPermissions) {
-                    getString(R.string.health_connect_granted)
-                } else {
-                    getString(R.string.health_connect_not_granted)
+        lifecycleScope.launch {
+            repeatOnLifecycle(Lifecycle.State.STARTED) {
+                // Each part of the state only touches its views when that part changed
+                launch {
+                    viewModel.uiState
+                        .map { it.permissionStatus }
+                        .distinctUntilChanged()
+                        .filterNotNull()
+                        .collect { hasPermissions -> showPermissionStatus(hasPermissions) }
                 }
-            binding.tvPermissionStatus.text = statusText
-
-            // Update button text based on permission status
-            binding.btnCheckPermissions.text =
-                if (hasPermissions) {
-                    getString(R.string.permissions_granted_status)
-                } else {
-                    getString(R.string.grant_permissions)
+                launch {
+                    viewModel.uiState
+                        .map { it.temperatureRecorded }
+                        .distinctUntilChanged()
+                        .filterNotNull()
+                        .collect { result ->
+                            showRecordResult(result)
+                            viewModel.onTemperatureRecordedShown()
+                        }
+                }
+                launch {
+                    viewModel.uiState
+                        .map { it.errorMessage }
+                        .distinctUntilChanged()
+                        .filterNotNull()
+                        .collect { message ->
+                            Toast.makeText(this@MainActivity, message, Toast.LENGTH_LONG).show()
+                            viewModel.onErrorShown()
+                        }
                 }
+            }
         }
+    }
 
-        viewModel.temperatureRecorded.observe(this) { result ->
-            result.onSuccess { message ->
-                Toast.makeText(this, message, Toast.LENGTH_SHORT).show()
-                binding.etTemperature.text?.clear()
-            }
-            result.onFailure { error ->
-                Toast.makeText(
-                    this,
-                    error.message ?: getString(R.string.error_recording_temperature),
-                    Toast.LENGTH_LONG,
-                ).show()
+    private fun showPermissionStatus(hasPermissions: Boolean) {
+        val statusText =
+            if (hasPermissions) {
+                getString(R.string.health_connect_granted)
+            } else {
+                getString(R.string.health_connect_not_granted)
             }
-        }
+        binding.tvPermissionStatus.text = statusText
 
-        viewModel.errorMessage.observe(this) { message ->
-            if (message.isNotEmpty()) {
-                Toast.makeText(this, message, Toast.LENGTH_LONG).show()
+        // Update button text based on permission status
+        binding.btnCheckPermissions.text =
+            if (hasPermissions) {
+                getString(R.string.permissions_granted_status)
+            } else {
+                getString(R.string.grant_permissions)
             }
+    }
+
+    private fun showRecordResult(result: Result<String>) {
+        result.onSuccess { message ->
+            Toast.makeText(this, message, Toast.LENGTH_SHORT).show()
+            binding.etTemperature.text?.clear()
+        }
+        result.onFailure { error ->
+            Toast.makeText(
+                this,
+                error.message ?: getString(R.string.error_recording_temperature),
+                Toast.LENGTH_LONG,
+            ).show()
         }
     }
 
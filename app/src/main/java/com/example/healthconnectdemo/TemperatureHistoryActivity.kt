@@ -1,19 +1,31 @@
 package com.example.healthconnectdemo
 
 import android.os.Bundle
+import android.util.Log
 import android.view.MenuItem
 import android.view.View
 import android.widget.Toast
 import androidx.activity.viewModels
 import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
+import androidx.paging.LoadState
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.example.healthconnectdemo.adapter.TemperatureHistoryAdapter
 import com.example.healthconnectdemo.databinding.ActivityTemperatureHistoryBinding
 import com.example.healthconnectdemo.model.TemperatureReading
 import com.example.healthconnectdemo.viewmodel.HistoryViewModel
 import dagger.hilt.android.AndroidEntryPoint
-import java.time.Instant
-import java.time.temporal.ChronoUnit
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.mapNotNull
+import kotlinx.coroutines.launch
+import java.time.Duration
 
 @AndroidEntryPoint
 class TemperatureHistoryActivity : AppCompatActivity() {
@@ -33,7 +45,20 @@ class TemperatureHistoryActivity : AppCompatActivity() {
 
         setupRecyclerView()
         observeViewModel()
-        loadHistory()
+
+        // Last 30 days of data, read page by page as the list scrolls
+        viewModel.showRecentHistory(Duration.ofDays(30))
+    }
+
+    override fun onStart() {
+        super.onStart()
+        // Picks up changes made by other apps while the screen was in the background
+        viewModel.refreshIfChanged()
+    }
+
+    override fun onStop() {
+        super.onStop()
+        viewModel.cancelPrefetch()
     }
 
     private fun setupRecyclerView() {
@@ -63,37 +88,69 @@ class TemperatureHistoryActivity : AppCompatActivity() {
     }
 
     private fun observeViewModel() {
-        viewModel.temperatureHistory.observe(this) { temperatures ->
-            if (temperatures.isEmpty()) {
-                binding.emptyView.visibility = View.VISIBLE
-                binding.recyclerView.visibility = View.GONE
-            } else {
-                binding.emptyView.visibility = View.GONE
-                binding.recyclerView.visibility = View.VISIBLE
-                adapter.submitList(temperatures)
-            }
-            binding.progressBar.visibility = View.GONE
-        }
-
-        viewModel.errorMessage.observe(this) { message ->
-            if (message.isNotEmpty()) {
-                Toast.makeText(this, message, Toast.LENGTH_LONG).show()
-                binding.progressBar.visibility = View.GONE
+        lifecycleScope.launch {
+            repeatOnLifecycle(Lifecycle.State.STARTED) {
+                launch {
+                    viewModel.pagedHistory.collectLatest { adapter.submitData(it) }
+                }
+                launch {
+                    adapter.loadStateFlow.collect { loadStates ->
+                        val refresh = loadStates.refresh
+                        val isEmpty =
+                            refresh is LoadState.NotLoading &&
+                                loadStates.append.endOfPaginationReached &&
+                                adapter.itemCount == 0
+                        binding.emptyView.visibility = if (isEmpty) View.VISIBLE else View.GONE
+                        binding.recyclerView.visibility = if (isEmpty) View.GONE else View.VISIBLE
+                    }
+                }
+                // Once per failed load: load states are emitted again for every other change
+                launch {
+                    adapter.loadStateFlow
+                        .map { (it.refresh as? LoadState.Error ?: it.append as? LoadState.Error)?.error }
+                        .distinctUntilChanged()
+                        .filterNotNull()
+                        .collect { error ->
+                            Toast.makeText(
+                                this@TemperatureHistoryActivity,
+                                "Error loading temperature history: ${error.message}",
+                                Toast.LENGTH_LONG,
+                            ).show()
+                        }
+                }
+                // Each part of the state only touches its views when that part changed
+                launch {
+                    combine(
+                        adapter.loadStateFlow.map { it.refresh is LoadState.Loading },
+                        viewModel.uiState.map { it.isLoading },
+                    ) { isRefreshing, isLoading -> isRefreshing || isLoading }
+                        .distinctUntilChanged()
+                        .collect { showProgress ->
+                            binding.progressBar.visibility = if (showProgress) View.VISIBLE else View.GONE
+                        }
+                }
+                launch {
+                    viewModel.uiState
+                        .map { it.errorMessage }
+                        .distinctUntilChanged()
+                        .filterNotNull()
+                        .collect { message ->
+                            Toast.makeText(this@TemperatureHistoryActivity, message, Toast.LENGTH_LONG).show()
+                            viewModel.onErrorShown()
+                        }
+                }
             }
         }
 
-        viewModel.isLoading.observe(this) { isLoading ->
-            binding.progressBar.visibility = if (isLoading) View.VISIBLE else View.GONE
+        lifecycleScope.launch {
+            // Measured once the adapter has rows, not when they were read
+            adapter.onPagesUpdatedFlow.first { adapter.itemCount > 0 }
+            viewModel.onContentShown()
+            val elapsed = viewModel.uiState.mapNotNull { it.timeToFirstContent }.first()
+            Log.i(TAG, "Time to first content: ${elapsed.toMillis()} ms")
         }
     }
 
-    private fun loadHistory() {
-        // Load last 30 days of data
-        val endTime = Instant.now()
-        val startTime = endTime.minus(30, ChronoUnit.DAYS)
-        viewModel.loadTemperatureHistory(startTime, endTime)
-    }
-
     override fun onOptionsItemSelected(item: MenuItem): Boolean {
         return when (item.itemId) {
             android.R.id.home -> {
@@ -103,4 +160,8 @@ class TemperatureHistoryActivity : AppCompatActivity() {
             else -> super.onOptionsItemSelected(item)
         }
     }
+
+    companion object {
+        private const val TAG = "TemperatureHistoryActivity"
+    }
 }
@@ -0,0 +1,37 @@
+package com.example.healthconnectdemo.adapter
+
+import com.example.healthconnectdemo.model.TemperatureReading
+
+/**
+ * Payload flags of a changed history row, telling which of its views need rebinding.
+ */
+internal object RowChanges {
+    const val TEMPERATURE = 1
+    const val DATE_TIME = 2
+    const val ALL = TEMPERATURE or DATE_TIME
+
+    /**
+     * Flags of the values that differ between [oldItem] and [newItem].
+     */
+    fun between(
+        oldItem: TemperatureReading,
+        newItem: TemperatureReading,
+    ): Int {
+        var changes = 0
+        if (oldItem.temperatureCelsius != newItem.temperatureCelsius) changes = changes or TEMPERATURE
+        if (oldItem.timestamp != newItem.timestamp || oldItem.zoneOffset != newItem.zoneOffset) {
+            changes = changes or DATE_TIME
+        }
+        return changes
+    }
+
+    /**
+     * Combines the [payloads] of one rebind, or returns null when any of them is not a set of
+     * these flags, e.g. one Paging dispatched for a placeholder, and the row needs a full bind.
+     */
+    fun combine(payloads: List<Any>): Int? {
+        var changes = 0
+        for (payload in payloads) changes = changes or (payload as? Int ?: return null)
+        return changes
+    }
+}
@@ -1,18 +1,43 @@
 package com.example.healthconnectdemo.adapter
 
+import android.util.LruCache
 import android.view.LayoutInflater
 import android.view.ViewGroup
+import android.widget.TextView
+import androidx.appcompat.widget.AppCompatTextView
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.widget.TextViewCompat
+import androidx.paging.PagingDataAdapter
 import androidx.recyclerview.widget.DiffUtil
-import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
 import com.example.healthconnectdemo.databinding.ItemTemperatureReadingBinding
 import com.example.healthconnectdemo.model.TemperatureReading
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asCoroutineDispatcher
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
+/**
+ * History list fed with [androidx.paging.PagingData]. Pages dropped to bound memory are read
+ * again when the list scrolls back to them.
+ *
+ * Row texts come ready-made with each reading, and their layouts are precomputed on a
+ * background thread and cached, so binding a row only assigns finished objects.
+ *
+ * Rows are identified by record ID and diffed on a dedicated thread. A changed row is only
+ * rebound in the views whose values changed.
+ */
 class TemperatureHistoryAdapter(
     private val onDeleteClick: (TemperatureReading) -> Unit,
-) : ListAdapter<TemperatureReading, TemperatureHistoryAdapter.ViewHolder>(
-        TemperatureDiffCallback(),
+) : PagingDataAdapter<TemperatureReading, TemperatureHistoryAdapter.ViewHolder>(
+        diffCallback = TemperatureDiffCallback(),
+        mainDispatcher = Dispatchers.Main,
+        workerDispatcher = DIFF_DISPATCHER,
     ) {
+    // Created with the first row, whose text views define the text metrics of all rows
+    private var rowTexts: RowTexts? = null
+
     override fun onCreateViewHolder(
         parent: ViewGroup,
         viewType: Int,
@@ -23,57 +48,134 @@ class TemperatureHistoryAdapter(
                 parent,
                 false,
             )
-        return ViewHolder(binding, onDeleteClick)
+        val texts = rowTexts ?: RowTexts(binding).also { rowTexts = it }
+        return ViewHolder(binding, texts, onDeleteClick)
+    }
+
+    override fun onBindViewHolder(
+        holder: ViewHolder,
+        position: Int,
+    ) {
+        // Never null: the list has no placeholders
+        getItem(position)?.let(holder::bind)
     }
 
     override fun onBindViewHolder(
         holder: ViewHolder,
         position: Int,
+        payloads: MutableList<Any>,
     ) {
-        holder.bind(getItem(position))
+        val reading = getItem(position)
+        // Several changes may have been dispatched before the row was rebound; Paging also
+        // sends payloads of its own, which need a full bind
+        val changes = RowChanges.combine(payloads)
+        if (payloads.isEmpty() || reading == null || changes == null) {
+            onBindViewHolder(holder, position)
+            return
+        }
+        holder.bindChanges(reading, changes)
     }
 
-    class ViewHolder(
+    class ViewHolder internal constructor(
         private val binding: ItemTemperatureReadingBinding,
-        private val onDeleteClick: (TemperatureReading) -> Unit,
+        private val texts: RowTexts,
+        onDeleteClick: (TemperatureReading) -> Unit,
     ) : RecyclerView.ViewHolder(binding.root) {
+        private var reading: TemperatureReading? = null
+
+        init {
+            // Set once; a rebind only swaps the reading it deletes
+            binding.btnDelete.setOnClickListener { reading?.let(onDeleteClick) }
+        }
+
         fun bind(reading: TemperatureReading) {
+            bindChanges(reading, RowChanges.ALL)
+        }
+
+        /**
+         * Rebinds only the views of the [changes], a combination of [RowChanges] flags.
+         */
+        fun bindChanges(
+            reading: TemperatureReading,
+            changes: Int,
+        ) {
+            this.reading = reading
             binding.apply {
-                tvTemperatureCelsius.text = reading.getFormattedCelsius()
-                tvTemperatureFahrenheit.text = reading.getFormattedFahrenheit()
-                tvDateTime.text = reading.getFormattedDateTime()
-
-                // Set temperature status color
-                val tempCelsius = reading.temperatureCelsius
-                val statusText =
-                    when {
-                        tempCelsius < 36.1 -> "Low"
-                        tempCelsius > 37.2 -> "High"
-                        else -> "Normal"
-                    }
-                tvStatus.text = statusText
-
-                // Delete button click
-                btnDelete.setOnClickListener {
-                    onDeleteClick(reading)
+                if (changes and RowChanges.TEMPERATURE != 0) {
+                    tvTemperatureCelsius.setPrecomputedText(texts.celsius, reading.getFormattedCelsius())
+                    tvTemperatureFahrenheit.setPrecomputedText(texts.fahrenheit, reading.getFormattedFahrenheit())
+                    // One of three constant strings
+                    tvStatus.text = reading.getStatus()
+                }
+                if (changes and RowChanges.DATE_TIME != 0) {
+                    tvDateTime.setPrecomputedText(texts.dateTime, reading.getFormattedDateTime())
                 }
             }
         }
     }
 
+    /**
+     * Precomputed layouts of the texts of one kind of row view, keyed by text. Temperatures
+     * come from a few hundred distinct texts, so after the first screens they are always
+     * cached.
+     */
+    internal class PrecomputedTexts(textView: TextView) {
+        private val params = TextViewCompat.getTextMetricsParams(textView)
+        private val futures = LruCache<String, Future<PrecomputedTextCompat>>(TEXT_CACHE_SIZE)
+
+        fun get(text: String): Future<PrecomputedTextCompat> =
+            futures.get(text) ?: PrecomputedTextCompat.getTextFuture(text, params, TEXT_EXECUTOR)
+                .also { futures.put(text, it) }
+    }
+
+    internal class RowTexts(binding: ItemTemperatureReadingBinding) {
+        val celsius = PrecomputedTexts(binding.tvTemperatureCelsius)
+        val fahrenheit = PrecomputedTexts(binding.tvTemperatureFahrenheit)
+        val dateTime = PrecomputedTexts(binding.tvDateTime)
+    }
+
     private class TemperatureDiffCallback : DiffUtil.ItemCallback<TemperatureReading>() {
         override fun areItemsTheSame(
             oldItem: TemperatureReading,
             newItem: TemperatureReading,
         ): Boolean {
-            return oldItem.timestamp == newItem.timestamp
+            // Readings taken at the same instant are still different rows
+            return oldItem.recordId == newItem.recordId
         }
 
         override fun areContentsTheSame(
             oldItem: TemperatureReading,
             newItem: TemperatureReading,
         ): Boolean {
-            return oldItem == newItem
+            // The texts are derived from these values, so they need no comparing
+            return oldItem.temperatureCelsius == newItem.temperatureCelsius &&
+                oldItem.timestamp == newItem.timestamp &&
+                oldItem.zoneOffset == newItem.zoneOffset
+        }
+
+        override fun getChangePayload(
+            oldItem: TemperatureReading,
+            newItem: TemperatureReading,
+        ): Any = RowChanges.between(oldItem, newItem)
+    }
+
+    companion object {
+        // Diffs every history list off the main thread without competing for Dispatchers.Default
+        private val DIFF_DISPATCHER = Executors.newSingleThreadExecutor().asCoroutineDispatcher()
+
+        // Measures row texts for every history list; the UI thread only waits on it when a
+        // row is measured before its texts are ready
+        private val TEXT_EXECUTOR: Executor = Executors.newSingleThreadExecutor()
+
+        // Covers every temperature text and about the dates of the rows Paging keeps in memory
+        private const val TEXT_CACHE_SIZE = 512
+
+        private fun TextView.setPrecomputedText(
+            texts: PrecomputedTexts,
+            text: String,
+        ) {
+            // Inflated in an AppCompat activity, the row's text views are AppCompatTextViews
+            if (this is AppCompatTextView) setTextFuture(texts.get(text)) else this.text = text
         }
     }
 }
@@ -0,0 +1,183 @@
+package com.example.healthconnectdemo.analytics
+
+import com.example.healthconnectdemo.healthconnect.BodyTemperature
+import com.example.healthconnectdemo.storage.StoredTemperature
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.withContext
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.ZoneOffset
+import javax.inject.Inject
+
+/**
+ * Computes min, max, mean, count and standard deviation per hour, day, week or month.
+ *
+ * Health Connect has no aggregate metrics for body temperature, so this reduces records
+ * on the device. Bucket boundaries follow each record's own zone offset. Large series are
+ * split into chunks that are reduced in parallel and then merged.
+ */
+class TemperatureAggregator
+    @Inject
+    constructor() {
+        suspend fun aggregate(
+            temperatures: List<BodyTemperature>,
+            period: AggregationPeriod,
+            dispatcher: CoroutineDispatcher = Dispatchers.Default,
+            chunkSize: Int = DEFAULT_CHUNK_SIZE,
+        ): List<TemperatureStats> =
+            aggregate(temperatures.size, period, dispatcher, chunkSize) { index ->
+                val temperature = temperatures[index]
+                Sample(
+                    epochSecond = temperature.time.epochSecond,
+                    offsetSeconds = temperature.zoneOffset.totalSeconds,
+                    celsius = temperature.temperature.inCelsius,
+                )
+            }
+
+        suspend fun aggregateStored(
+            points: List<StoredTemperature>,
+            period: AggregationPeriod,
+            dispatcher: CoroutineDispatcher = Dispatchers.Default,
+            chunkSize: Int = DEFAULT_CHUNK_SIZE,
+        ): List<TemperatureStats> =
+            aggregate(points.size, period, dispatcher, chunkSize) { index ->
+                val point = points[index]
+                Sample(
+                    epochSecond = Math.floorDiv(point.epochMillis, 1000L),
+                    offsetSeconds = point.offsetSeconds,
+                    celsius = point.celsius,
+                )
+            }
+
+        private class Sample(
+            val epochSecond: Long,
+            val offsetSeconds: Int,
+            val celsius: Double,
+        )
+
+        private suspend fun aggregate(
+            size: Int,
+            period: AggregationPeriod,
+            dispatcher: CoroutineDispatcher,
+            chunkSize: Int,
+            sampleAt: (Int) -> Sample,
+        ): List<TemperatureStats> {
+            require(chunkSize > 0) { "chunkSize must be positive" }
+            if (size == 0) return emptyList()
+
+            val merged =
+                withContext(dispatcher) {
+                    if (size <= chunkSize) {
+                        reduceRange(0, size, period, sampleAt)
+                    } else {
+                        coroutineScope {
+                            (0 until size step chunkSize)
+                                .map { from ->
+                                    async { reduceRange(from, minOf(from + chunkSize, size), period, sampleAt) }
+                                }
+                                .awaitAll()
+                                .reduce { acc, partial ->
+                                    partial.forEach { (bucket, stats) ->
+                                        acc.getOrPut(bucket) { RunningStats() }.merge(stats)
+                                    }
+                                    acc
+                                }
+                        }
+                    }
+                }
+
+            return merged.entries
+                .sortedBy { it.key }
+                .map { (bucket, stats) ->
+                    TemperatureStats(
+                        period = period,
+                        start = LocalDateTime.ofEpochSecond(bucket, 0, ZoneOffset.UTC),
+                        count = stats.count,
+                        minCelsius = stats.min,
+                        maxCelsius = stats.max,
+                        meanCelsius = stats.mean,
+                        standardDeviationCelsius = stats.standardDeviation,
+                    )
+                }
+        }
+
+        private fun reduceRange(
+            from: Int,
+            to: Int,
+            period: AggregationPeriod,
+            sampleAt: (Int) -> Sample,
+        ): HashMap<Long, RunningStats> {
+            val buckets = HashMap<Long, RunningStats>()
+            for (index in from until to) {
+                val sample = sampleAt(index)
+                val bucket = bucketStart(sample.epochSecond + sample.offsetSeconds, period)
+                buckets.getOrPut(bucket) { RunningStats() }.add(sample.celsius)
+            }
+            return buckets
+        }
+
+        /**
+         * Running statistics using Welford's method, mergeable across chunks
+         */
+        private class RunningStats {
+            var count = 0L
+            var mean = 0.0
+            var min = Double.POSITIVE_INFINITY
+            var max = Double.NEGATIVE_INFINITY
+            private var m2 = 0.0
+
+            val standardDeviation: Double
+                get() = if (count > 0) Math.sqrt(m2 / count) else 0.0
+
+            fun add(value: Double) {
+                count++
+                val delta = value - mean
+                mean += delta / count
+                m2 += delta * (value - mean)
+                if (value < min) min = value
+                if (value > max) max = value
+            }
+
+            fun merge(other: RunningStats) {
+                if (other.count == 0L) return
+                val total = count + other.count
+                val delta = other.mean - mean
+                m2 += other.m2 + delta * delta * count * other.count / total
+                mean += delta * other.count / total
+                count = total
+                if (other.min < min) min = other.min
+                if (other.max > max) max = other.max
+            }
+        }
+
+        companion object {
+            /** Records reduced per parallel chunk. */
+            const val DEFAULT_CHUNK_SIZE = 10_000
+
+            private const val SECONDS_PER_HOUR = 3600L
+            private const val SECONDS_PER_DAY = 86_400L
+
+            /**
+             * Start of the bucket containing [localEpochSecond], in local epoch seconds.
+             * Weeks start on Monday.
+             */
+            internal fun bucketStart(
+                localEpochSecond: Long,
+                period: AggregationPeriod,
+            ): Long {
+                val epochDay = Math.floorDiv(localEpochSecond, SECONDS_PER_DAY)
+                return when (period) {
+                    AggregationPeriod.HOUR -> Math.floorDiv(localEpochSecond, SECONDS_PER_HOUR) * SECONDS_PER_HOUR
+                    AggregationPeriod.DAY -> epochDay * SECONDS_PER_DAY
+                    // 1970-01-01 was a Thursday, three days after a Monday
+                    AggregationPeriod.WEEK -> (epochDay - Math.floorMod(epochDay + 3, 7L)) * SECONDS_PER_DAY
+                    AggregationPeriod.MONTH ->
+                        LocalDate.ofEpochDay(epochDay).withDayOfMonth(1).toEpochDay() * SECONDS_PER_DAY
+                }
+            }
+        }
+    }
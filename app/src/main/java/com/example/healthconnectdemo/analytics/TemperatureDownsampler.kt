@@ -0,0 +1,242 @@
+package com.example.healthconnectdemo.analytics
+
+import com.example.healthconnectdemo.healthconnect.BodyTemperature
+import com.example.healthconnectdemo.healthconnect.BodyTemperaturePage
+import com.example.healthconnectdemo.model.TemperatureSeries
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.map
+import java.time.Instant
+import kotlin.math.abs
+
+/**
+ * How [TemperatureDownsampler] picks the points to draw.
+ */
+enum class DownsamplingMode {
+    /** Largest-Triangle-Three-Buckets: keeps the visual shape of the line. */
+    LTTB,
+
+    /** Lowest and highest reading per bucket: no fever spike or dip is ever dropped. */
+    MIN_MAX,
+
+    /** First, lowest, highest and last reading per bucket: draws exactly like the full line. */
+    M4,
+}
+
+/**
+ * A point to plot on a temperature chart.
+ */
+data class ChartPoint(
+    val epochMillis: Long,
+    val celsius: Double,
+)
+
+/**
+ * Reduces the readings in [start, end) to at most [pointBudget] chart points, e.g. one per
+ * horizontal pixel.
+ *
+ * Readings can be added in any order and in any number of pages. Each one only updates the
+ * summary of its fixed time bucket, so memory and the cost of [points] depend on the budget,
+ * not on the length of the range. For [DownsamplingMode.LTTB] the buckets are
+ * [LTTB_PRESELECTION] times finer than the budget and their lowest and highest readings are
+ * the candidates that LTTB then chooses from.
+ *
+ * Not thread-safe.
+ */
+class TemperatureDownsampler(
+    start: Instant,
+    end: Instant,
+    private val pointBudget: Int = DEFAULT_POINT_BUDGET,
+    private val mode: DownsamplingMode = DownsamplingMode.LTTB,
+) {
+    init {
+        require(end.isAfter(start)) { "end must be after start" }
+        require(pointBudget >= MIN_POINT_BUDGET) { "pointBudget must be at least $MIN_POINT_BUDGET" }
+    }
+
+    private val startMillis = start.toEpochMilli()
+    private val endMillis = end.toEpochMilli()
+    private val spanMillis = endMillis - startMillis
+
+    private val bucketCount =
+        when (mode) {
+            DownsamplingMode.LTTB -> pointBudget * LTTB_PRESELECTION
+            DownsamplingMode.MIN_MAX -> pointBudget / 2
+            DownsamplingMode.M4 -> pointBudget / 4
+        }
+
+    // Per-bucket summaries, one array per field
+    private val counts = IntArray(bucketCount)
+    private val firstTimes = LongArray(bucketCount)
+    private val firstValues = DoubleArray(bucketCount)
+    private val lastTimes = LongArray(bucketCount)
+    private val lastValues = DoubleArray(bucketCount)
+    private val minTimes = LongArray(bucketCount)
+    private val minValues = DoubleArray(bucketCount)
+    private val maxTimes = LongArray(bucketCount)
+    private val maxValues = DoubleArray(bucketCount)
+
+    /** Number of readings added inside the range. */
+    var readingCount = 0L
+        private set
+
+    fun add(
+        epochMillis: Long,
+        celsius: Double,
+    ) {
+        if (epochMillis < startMillis || epochMillis >= endMillis) return
+
+        val bucket = ((epochMillis - startMillis) * bucketCount / spanMillis).toInt()
+        if (counts[bucket] == 0) {
+            firstTimes[bucket] = epochMillis
+            firstValues[bucket] = celsius
+            lastTimes[bucket] = epochMillis
+            lastValues[bucket] = celsius
+            minTimes[bucket] = epochMillis
+            minValues[bucket] = celsius
+            maxTimes[bucket] = epochMillis
+            maxValues[bucket] = celsius
+        } else {
+            if (epochMillis < firstTimes[bucket]) {
+                firstTimes[bucket] = epochMillis
+                firstValues[bucket] = celsius
+            }
+            if (epochMillis >= lastTimes[bucket]) {
+                lastTimes[bucket] = epochMillis
+                lastValues[bucket] = celsius
+            }
+            if (celsius < minValues[bucket]) {
+                minTimes[bucket] = epochMillis
+                minValues[bucket] = celsius
+            }
+            if (celsius > maxValues[bucket]) {
+                maxTimes[bucket] = epochMillis
+                maxValues[bucket] = celsius
+            }
+        }
+        counts[bucket]++
+        readingCount++
+    }
+
+    fun addAll(temperatures: Iterable<BodyTemperature>) {
+        temperatures.forEach { add(it.time.toEpochMilli(), it.temperature.inCelsius) }
+    }
+
+    fun addAll(series: TemperatureSeries) {
+        for (i in 0 until series.size) add(series.epochMillis(i), series.celsius(i))
+    }
+
+    /**
+     * Returns the points to draw for everything added so far, oldest first.
+     */
+    fun points(): List<ChartPoint> =
+        when (mode) {
+            DownsamplingMode.LTTB -> largestTriangleThreeBuckets(minMaxPoints(), pointBudget)
+            DownsamplingMode.MIN_MAX -> minMaxPoints()
+            DownsamplingMode.M4 -> m4Points()
+        }
+
+    private fun minMaxPoints(): List<ChartPoint> {
+        val points = ArrayList<ChartPoint>(bucketCount * 2)
+        for (bucket in 0 until bucketCount) {
+            if (counts[bucket] == 0) continue
+            val min = ChartPoint(minTimes[bucket], minValues[bucket])
+            val max = ChartPoint(maxTimes[bucket], maxValues[bucket])
+            // Keep the pair in time order; a bucket with one reading adds it once
+            val (earlier, later) = if (min.epochMillis <= max.epochMillis) min to max else max to min
+            points.add(earlier)
+            if (later != earlier) points.add(later)
+        }
+        return points
+    }
+
+    private fun m4Points(): List<ChartPoint> {
+        val points = ArrayList<ChartPoint>(bucketCount * 4)
+        for (bucket in 0 until bucketCount) {
+            if (counts[bucket] == 0) continue
+            listOf(
+                ChartPoint(firstTimes[bucket], firstValues[bucket]),
+                ChartPoint(minTimes[bucket], minValues[bucket]),
+                ChartPoint(maxTimes[bucket], maxValues[bucket]),
+                ChartPoint(lastTimes[bucket], lastValues[bucket]),
+            ).distinct()
+                .sortedBy { it.epochMillis }
+                .forEach { points.add(it) }
+        }
+        return points
+    }
+
+    companion object {
+        /** Roughly the number of points a phone-width chart can show. */
+        const val DEFAULT_POINT_BUDGET = 1000
+
+        /** Candidate buckets per output point for [DownsamplingMode.LTTB]. */
+        const val LTTB_PRESELECTION = 4
+
+        private const val MIN_POINT_BUDGET = 4
+
+        /**
+         * Selects [threshold] points of [points], sorted by time, that best keep the shape of
+         * the line. The first and last points are always kept.
+         */
+        internal fun largestTriangleThreeBuckets(
+            points: List<ChartPoint>,
+            threshold: Int,
+        ): List<ChartPoint> {
+            if (threshold >= points.size || threshold < 3) return points
+
+            val origin = points.first().epochMillis
+            val sampled = ArrayList<ChartPoint>(threshold)
+            sampled.add(points.first())
+
+            // The points between first and last are split into threshold - 2 buckets
+            val bucketSize = (points.size - 2).toDouble() / (threshold - 2)
+            var selected = 0
+            for (bucket in 0 until threshold - 2) {
+                val rangeStart = (bucket * bucketSize).toInt() + 1
+                val rangeEnd = ((bucket + 1) * bucketSize).toInt() + 1
+
+                // The third triangle corner is the average of the next bucket
+                val nextStart = rangeEnd
+                val nextEnd = minOf(((bucket + 2) * bucketSize).toInt() + 1, points.size)
+                var averageX = 0.0
+                var averageY = 0.0
+                for (i in nextStart until nextEnd) {
+                    averageX += points[i].epochMillis - origin
+                    averageY += points[i].celsius
+                }
+                val nextCount = nextEnd - nextStart
+                averageX /= nextCount
+                averageY /= nextCount
+
+                val selectedX = (points[selected].epochMillis - origin).toDouble()
+                val selectedY = points[selected].celsius
+                var maxArea = -1.0
+                var maxIndex = rangeStart
+                for (i in rangeStart until rangeEnd) {
+                    val x = (points[i].epochMillis - origin).toDouble()
+                    val y = points[i].celsius
+                    val area = abs((selectedX - averageX) * (y - selectedY) - (selectedX - x) * (averageY - selectedY))
+                    if (area > maxArea) {
+                        maxArea = area
+                        maxIndex = i
+                    }
+                }
+                sampled.add(points[maxIndex])
+                selected = maxIndex
+            }
+
+            sampled.add(points.last())
+            return sampled
+        }
+    }
+}
+
+/**
+ * Feeds each page into [downsampler] and emits the updated chart points, so a chart can be
+ * redrawn as pages arrive.
+ */
+fun Flow<BodyTemperaturePage>.downsample(downsampler: TemperatureDownsampler): Flow<List<ChartPoint>> =
+    map { page ->
+        downsampler.addAll(page.records)
+        downsampler.points()
+    }
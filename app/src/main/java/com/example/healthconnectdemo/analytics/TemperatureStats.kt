@@ -0,0 +1,27 @@
+package com.example.healthconnectdemo.analytics
+
+import java.time.LocalDateTime
+
+/**
+ * Bucket sizes for temperature aggregation
+ */
+enum class AggregationPeriod {
+    HOUR,
+    DAY,
+    WEEK,
+    MONTH,
+}
+
+/**
+ * Statistics for one aggregation bucket. [start] is the local wall-clock start of the
+ * bucket, derived from each record's own zone offset.
+ */
+data class TemperatureStats(
+    val period: AggregationPeriod,
+    val start: LocalDateTime,
+    val count: Long,
+    val minCelsius: Double,
+    val maxCelsius: Double,
+    val meanCelsius: Double,
+    val standardDeviationCelsius: Double,
+)
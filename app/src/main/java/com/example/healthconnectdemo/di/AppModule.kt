@@ -3,11 +3,20 @@ package com.example.healthconnectdemo.di
 import android.content.Context
 import androidx.health.connect.client.HealthConnectClient
 import com.example.healthconnectdemo.healthconnect.HealthConnectManager
+import com.example.healthconnectdemo.healthconnect.HealthConnectRateLimiter
+import com.example.healthconnectdemo.healthconnect.TemperatureRangeCache
+import com.example.healthconnectdemo.repository.TemperatureRepository
+import com.example.healthconnectdemo.storage.TemperatureSnapshot
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
 import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.components.SingletonComponent
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import java.io.File
 import javax.inject.Singleton
 
 @Module
@@ -21,12 +30,54 @@ object AppModule {
         return HealthConnectClient.getOrCreate(context)
     }
 
+    @Provides
+    @Singleton
+    fun provideHealthConnectRateLimiter(): HealthConnectRateLimiter {
+        return HealthConnectRateLimiter()
+    }
+
+    @Provides
+    @Singleton
+    fun provideTemperatureRangeCache(): TemperatureRangeCache {
+        return TemperatureRangeCache()
+    }
+
     @Provides
     @Singleton
     fun provideHealthConnectManager(
         healthConnectClient: HealthConnectClient,
         @ApplicationContext context: Context,
+        rateLimiter: HealthConnectRateLimiter,
+        rangeCache: TemperatureRangeCache,
     ): HealthConnectManager {
-        return HealthConnectManager(healthConnectClient, context)
+        return HealthConnectManager(healthConnectClient, context, rateLimiter, rangeCache)
     }
+
+    @Provides
+    @Singleton
+    fun provideTemperatureSnapshot(
+        @ApplicationContext context: Context,
+    ): TemperatureSnapshot {
+        return TemperatureSnapshot(File(context.filesDir, "history-snapshot.bin"))
+    }
+
+    @Provides
+    @Singleton
+    fun provideTemperatureRepository(healthConnectManager: HealthConnectManager): TemperatureRepository {
+        // One instance, so every screen sees the changes made from any other
+        return TemperatureRepository(healthConnectManager)
+    }
+
+    @Provides
+    @Singleton
+    @ApplicationScope
+    fun provideApplicationScope(
+        @BackgroundDispatcher dispatcher: CoroutineDispatcher,
+    ): CoroutineScope {
+        return CoroutineScope(SupervisorJob() + dispatcher)
+    }
+
+    @Provides
+    @BackgroundDispatcher
+    fun provideBackgroundDispatcher(): CoroutineDispatcher = Dispatchers.Default
 }
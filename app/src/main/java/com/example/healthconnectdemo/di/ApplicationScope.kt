@@ -0,0 +1,12 @@
+package com.example.healthconnectdemo.di
+
+import javax.inject.Qualifier
+
+/**
+ * Coroutine scope that lives as long as the process, for work that must finish even when the
+ * screen that started it goes away, such as buffered Health Connect writes. Tests inject a
+ * scope on their test dispatcher instead.
+ */
+@Qualifier
+@Retention(AnnotationRetention.BINARY)
+annotation class ApplicationScope
@@ -0,0 +1,11 @@
+package com.example.healthconnectdemo.di
+
+import javax.inject.Qualifier
+
+/**
+ * Dispatcher for CPU-bound work that must stay off the main thread, such as converting and
+ * formatting a loaded history. Tests inject their test dispatcher instead.
+ */
+@Qualifier
+@Retention(AnnotationRetention.BINARY)
+annotation class BackgroundDispatcher
@@ -0,0 +1,36 @@
+package com.example.healthconnectdemo.healthconnect
+
+/**
+ * Outcome of a bulk write, one entry per insertRecords call
+ */
+data class BulkWriteResult(
+    val chunks: List<ChunkWriteResult>,
+) {
+    val isSuccess: Boolean
+        get() = chunks.all { it.isSuccess }
+
+    /**
+     * Health Connect IDs of all inserted records, in input order
+     */
+    val insertedIds: List<String>
+        get() = chunks.flatMap { it.insertedIds }
+
+    /**
+     * Readings from chunks that failed and can be retried
+     */
+    val failedReadings: List<BodyTemperatureWrite>
+        get() = chunks.filterNot { it.isSuccess }.flatMap { it.readings }
+}
+
+/**
+ * Outcome of a single insertRecords call within a bulk write
+ */
+data class ChunkWriteResult(
+    val index: Int,
+    val readings: List<BodyTemperatureWrite>,
+    val insertedIds: List<String>,
+    val error: Throwable? = null,
+) {
+    val isSuccess: Boolean
+        get() = error == null
+}
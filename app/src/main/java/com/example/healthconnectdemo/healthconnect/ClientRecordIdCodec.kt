@@ -0,0 +1,190 @@
+package com.example.healthconnectdemo.healthconnect
+
+import com.example.healthconnectdemo.model.UserInfo
+import com.example.healthconnectdemo.model.UserType
+import java.io.ByteArrayOutputStream
+import java.util.Base64
+
+/**
+ * Encodes [UserInfo] into the clientRecordId of a record and back.
+ *
+ * New IDs use the versioned binary format: [BINARY_PREFIX] followed by unpadded URL-safe
+ * Base64 of a version byte and varint-packed fields. Version 1 holds a header varint
+ * `userType.ordinal shl 1 | hasUserId`, then the length-prefixed UTF-8 user name and, if
+ * present, the length-prefixed UTF-8 user ID. New [UserType] constants must therefore be
+ * appended, never inserted.
+ *
+ * Older records use the text format `userName|userType|userId`. Its writer replaced `|` in
+ * names and escaped nothing, so a text ID is split at every `|` and backslashes are kept as
+ * they are. A text ID always contains `|`, which Base64 never does, so the format is known
+ * up front.
+ *
+ * Repeated IDs return a shared [UserInfo] instance from a bounded cache, so reading many
+ * records of the same user allocates nothing per record.
+ */
+object ClientRecordIdCodec {
+    /** First character of IDs in the binary format. */
+    const val BINARY_PREFIX = '~'
+
+    /** Current version of the binary format. */
+    const val VERSION = 1
+
+    private const val SEPARATOR = '|'
+    private const val CACHE_SIZE = 256
+
+    private val base64Encoder = Base64.getUrlEncoder().withoutPadding()
+    private val base64Decoder = Base64.getUrlDecoder()
+
+    private val userTypes = UserType.entries.toTypedArray()
+
+    private val decoded = BoundedCache<String, UserInfo>(CACHE_SIZE)
+    private val encoded = BoundedCache<UserInfo, String>(CACHE_SIZE)
+
+    /**
+     * Encodes [userInfo] in the current binary format.
+     */
+    fun encode(userInfo: UserInfo): String {
+        encoded[userInfo]?.let { return it }
+
+        val name = userInfo.userName.toByteArray(Charsets.UTF_8)
+        val userId = userInfo.userId?.toByteArray(Charsets.UTF_8)
+        val out = ByteArrayOutputStream(name.size + (userId?.size ?: 0) + 8)
+        out.write(VERSION)
+        writeVarint(out, userInfo.userType.ordinal shl 1 or (if (userId != null) 1 else 0))
+        writeVarint(out, name.size)
+        out.write(name)
+        if (userId != null) {
+            writeVarint(out, userId.size)
+            out.write(userId)
+        }
+        return (BINARY_PREFIX + base64Encoder.encodeToString(out.toByteArray())).also { encoded[userInfo] = it }
+    }
+
+    /**
+     * Returns the [UserInfo] encoded in [clientRecordId] in either format, or null when it
+     * carries none or was written by an unknown version.
+     */
+    fun decode(clientRecordId: String?): UserInfo? {
+        if (clientRecordId.isNullOrBlank()) return null
+        decoded[clientRecordId]?.let { return it }
+
+        val userInfo = if (isBinary(clientRecordId)) parseBinary(clientRecordId) else parseText(clientRecordId)
+        return userInfo?.also { decoded[clientRecordId] = it }
+    }
+
+    private fun isBinary(id: String): Boolean = id[0] == BINARY_PREFIX && id.indexOf(SEPARATOR) < 0
+
+    private fun parseBinary(id: String): UserInfo? {
+        val bytes =
+            try {
+                base64Decoder.decode(id.substring(1))
+            } catch (e: IllegalArgumentException) {
+                return null
+            }
+        val reader = VarintReader(bytes)
+        if (reader.readByte() != VERSION) return null
+
+        val header = reader.readVarint()
+        val userType = userTypes.getOrNull(header ushr 1) ?: return null
+        val userName = reader.readString() ?: return null
+        val userId = if (header and 1 != 0) reader.readString() ?: return null else null
+        return UserInfo(userName, userType, userId)
+    }
+
+    private fun parseText(id: String): UserInfo? {
+        val nameEnd = id.indexOf(SEPARATOR)
+        if (nameEnd < 0) return null
+
+        val typeStart = nameEnd + 1
+        val typeEnd = fieldEnd(id, typeStart)
+        val userType = userType(id, typeStart, typeEnd) ?: return null
+
+        // Anything after a further separator is ignored, as it always was
+        val userId = if (typeEnd < id.length) id.substring(typeEnd + 1, fieldEnd(id, typeEnd + 1)) else null
+        return UserInfo(
+            userName = id.substring(0, nameEnd),
+            userType = userType,
+            userId = userId,
+        )
+    }
+
+    /** Index of the first separator at or after [start], or the end of [id]. */
+    private fun fieldEnd(
+        id: String,
+        start: Int,
+    ): Int = id.indexOf(SEPARATOR, start).let { if (it < 0) id.length else it }
+
+    private fun userType(
+        id: String,
+        start: Int,
+        end: Int,
+    ): UserType? {
+        val length = end - start
+        for (type in userTypes) {
+            if (type.name.length == length && id.regionMatches(start, type.name, 0, length)) return type
+        }
+        return null
+    }
+
+    private fun writeVarint(
+        out: ByteArrayOutputStream,
+        value: Int,
+    ) {
+        var remaining = value
+        while (remaining and 0x7F.inv() != 0) {
+            out.write(remaining and 0x7F or 0x80)
+            remaining = remaining ushr 7
+        }
+        out.write(remaining)
+    }
+
+    /**
+     * Reads varint-packed fields; every read returns -1 or null once the input is exhausted
+     * or malformed.
+     */
+    private class VarintReader(private val bytes: ByteArray) {
+        private var position = 0
+
+        fun readByte(): Int = if (position < bytes.size) bytes[position++].toInt() and 0xFF else -1
+
+        fun readVarint(): Int {
+            var result = 0
+            var shift = 0
+            while (shift < 32) {
+                val b = readByte()
+                if (b < 0) return -1
+                result = result or (b and 0x7F shl shift)
+                if (b and 0x80 == 0) return result
+                shift += 7
+            }
+            return -1
+        }
+
+        fun readString(): String? {
+            val length = readVarint()
+            if (length < 0 || length > bytes.size - position) return null
+            return String(bytes, position, length, Charsets.UTF_8).also { position += length }
+        }
+    }
+
+    /**
+     * Thread-safe LRU map holding at most [maxSize] entries.
+     */
+    private class BoundedCache<K, V>(private val maxSize: Int) {
+        private val map =
+            object : LinkedHashMap<K, V>(maxSize, 0.75f, true) {
+                override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>?): Boolean = size > maxSize
+            }
+
+        @Synchronized
+        operator fun get(key: K): V? = map[key]
+
+        @Synchronized
+        operator fun set(
+            key: K,
+            value: V,
+        ) {
+            map[key] = value
+        }
+    }
+}
@@ -2,26 +2,48 @@ package com.example.healthconnectdemo.healthconnect
 
 import android.content.Context
 import androidx.health.connect.client.HealthConnectClient
+import androidx.health.connect.client.changes.DeletionChange
+import androidx.health.connect.client.changes.UpsertionChange
 import androidx.health.connect.client.permission.HealthPermission
 import androidx.health.connect.client.records.BodyTemperatureRecord
 import androidx.health.connect.client.records.metadata.Metadata
+import androidx.health.connect.client.request.ChangesTokenRequest
 import androidx.health.connect.client.request.ReadRecordsRequest
 import androidx.health.connect.client.time.TimeRangeFilter
 import androidx.health.connect.client.units.Temperature
 import com.example.healthconnectdemo.model.UserInfo
-import com.example.healthconnectdemo.model.UserType
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.filterNotNull
 import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.time.Duration
 import java.time.Instant
 import java.time.ZoneId
 import java.time.ZoneOffset
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
+import kotlin.coroutines.EmptyCoroutineContext
 
 class HealthConnectManager
     @Inject
     constructor(
         private val healthConnectClient: HealthConnectClient,
         private val context: Context,
+        private val rateLimiter: HealthConnectRateLimiter = HealthConnectRateLimiter(),
+        private val rangeCache: TemperatureRangeCache = TemperatureRangeCache(),
     ) {
         val permissions =
             setOf(
@@ -32,118 +54,481 @@ class HealthConnectManager
         fun checkHealthConnectIsAvailable(): Boolean =
             HealthConnectClient.getSdkStatus(context) == HealthConnectClient.SDK_UNAVAILABLE_PROVIDER_UPDATE_REQUIRED
 
-        suspend fun hasAllPermissions(): Boolean {
-            return healthConnectClient.permissionController.getGrantedPermissions()
-                .containsAll(permissions)
+        private val permissionMutex = Mutex()
+        private val _permissionStatus = MutableStateFlow<Boolean?>(null)
+
+        @Volatile
+        private var permissionCheckedAtNanos = 0L
+
+        /**
+         * Last known permission status. Emits after the first check and whenever the
+         * status changes; reading it never triggers IPC.
+         */
+        val permissionStatus: Flow<Boolean> = _permissionStatus.filterNotNull().distinctUntilChanged()
+
+        /**
+         * Returns whether all [permissions] are granted. The answer is cached for
+         * [PERMISSION_CACHE_TTL_MILLIS] so repeated checks on resume and click paths do not
+         * each cost a binder call; pass [forceRefresh] to bypass the cache.
+         */
+        suspend fun hasAllPermissions(forceRefresh: Boolean = false): Boolean {
+            if (!forceRefresh) cachedPermissionStatus()?.let { return it }
+
+            return permissionMutex.withLock {
+                // Another caller may have refreshed the cache while this one waited
+                if (!forceRefresh) cachedPermissionStatus()?.let { return@withLock it }
+
+                val granted =
+                    callHealthConnect { healthConnectClient.permissionController.getGrantedPermissions() }
+                        .containsAll(permissions)
+                updatePermissionStatus(granted)
+                granted
+            }
+        }
+
+        /**
+         * Updates the cached status from a permission request result.
+         */
+        fun onPermissionsResult(grantedPermissions: Set<String>) {
+            updatePermissionStatus(grantedPermissions.containsAll(permissions))
         }
 
+        /**
+         * Forces the next [hasAllPermissions] call to ask Health Connect again.
+         */
+        fun invalidatePermissionCache() {
+            permissionCheckedAtNanos = 0L
+        }
+
+        private fun cachedPermissionStatus(): Boolean? {
+            val status = _permissionStatus.value ?: return null
+            val checkedAt = permissionCheckedAtNanos
+            if (checkedAt == 0L) return null
+            val ageMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - checkedAt)
+            return if (ageMillis < PERMISSION_CACHE_TTL_MILLIS) status else null
+        }
+
+        private fun updatePermissionStatus(granted: Boolean) {
+            permissionCheckedAtNanos = System.nanoTime()
+            _permissionStatus.value = granted
+        }
+
+        /**
+         * Runs a Health Connect call, dropping the cached permission status if the call
+         * shows that a permission has been revoked.
+         */
+        private inline fun <T> withPermissionCheck(block: () -> T): T {
+            try {
+                return block()
+            } catch (e: SecurityException) {
+                invalidatePermissionCache()
+                _permissionStatus.value = false
+                throw e
+            }
+        }
+
+        /** Current rate limiter metrics: queue depth, throttle time and quota errors. */
+        val rateLimiterMetrics: RateLimiterMetrics
+            get() = rateLimiter.metrics
+
+        /**
+         * Runs a Health Connect call through the rate limiter and the permission check.
+         */
+        private suspend fun <T> callHealthConnect(block: suspend () -> T): T =
+            rateLimiter.run { withPermissionCheck { block() } }
+
         // Permission request is handled by the Activity using PermissionController
 
+        /**
+         * Streams body temperature records in [start, end), oldest first, or newest first when
+         * [ascendingOrder] is false.
+         *
+         * The range is assembled from the windows of the read cache; each run of consecutive
+         * missing windows is read with one paginated request, emitted page by page as it
+         * arrives, and then cached. Windows are visited in the requested order and Health
+         * Connect returns each run in that order, so the records never need sorting.
+         */
         suspend fun readBodyTemperatures(
             start: Instant,
             end: Instant,
+            pageSize: Int = DEFAULT_PAGE_SIZE,
+            ascendingOrder: Boolean = true,
+        ): Flow<BodyTemperature> =
+            flow {
+                val indices = rangeCache.windowIndices(start, end)
+                val cached = indices.map { rangeCache[it] }
+                // Positions in cached, in the order the windows are emitted
+                val positions = (if (ascendingOrder) cached.indices else cached.indices.reversed()).toList()
+
+                var i = 0
+                while (i < positions.size) {
+                    val windowRecords = cached[positions[i]]
+                    if (windowRecords != null) {
+                        val ordered = if (ascendingOrder) windowRecords else windowRecords.asReversed()
+                        ordered.forEach { if (!it.time.isBefore(start) && it.time.isBefore(end)) emit(it) }
+                        i++
+                        continue
+                    }
+
+                    var missingEnd = i + 1
+                    while (missingEnd < positions.size && cached[positions[missingEnd]] == null) missingEnd++
+                    val fromIndex = indices.first + minOf(positions[i], positions[missingEnd - 1])
+                    val toIndex = indices.first + maxOf(positions[i], positions[missingEnd - 1]) + 1
+                    val missingStart = rangeCache.windowStart(fromIndex)
+                    val missingEndTime = rangeCache.windowStart(toIndex)
+                    val generation = rangeCache.generation
+                    val records = mutableListOf<BodyTemperature>()
+                    readBodyTemperaturePages(missingStart, missingEndTime, pageSize, ascendingOrder).collect { page ->
+                        records.addAll(page.records)
+                        page.records.forEach { if (!it.time.isBefore(start) && it.time.isBefore(end)) emit(it) }
+                    }
+                    rangeCache.put(fromIndex, toIndex, records, generation)
+                    i = missingEnd
+                }
+            }
+
+        /** Hit and miss counts and size of the read cache. */
+        val readCacheStats: RangeCacheStats
+            get() = rangeCache.stats
+
+        // Range and order of a shared read
+        private data class ReadKey(
+            val start: Instant,
+            val end: Instant,
+            val ascendingOrder: Boolean,
+        )
+
+        private val readFlights =
+            SingleFlight<ReadKey, BodyTemperaturePage>(CoroutineScope(SupervisorJob() + Dispatchers.IO))
+
+        /** Number of range reads actually sent to Health Connect. */
+        val executedReadCount: Long
+            get() = readFlights.executedCount
+
+        /** Number of range reads served by an identical or wider read already in flight. */
+        val deduplicatedReadCount: Long
+            get() = readFlights.deduplicatedCount
+
+        /**
+         * Streams body temperature records in [start, end) page by page, oldest first unless
+         * [ascendingOrder] is false.
+         *
+         * Concurrent callers asking for the same range, or for a range inside one that is
+         * already being read in the same order, share that single read instead of starting
+         * another. A new read keeps the caller's [CallPriority].
+         */
+        fun readBodyTemperaturePages(
+            start: Instant,
+            end: Instant,
+            pageSize: Int = DEFAULT_PAGE_SIZE,
+            ascendingOrder: Boolean = true,
+        ): Flow<BodyTemperaturePage> =
+            flow {
+                val pages =
+                    readFlights.share(
+                        key = ReadKey(start, end, ascendingOrder),
+                        covers = { running ->
+                            running.ascendingOrder == ascendingOrder &&
+                                !running.start.isAfter(start) && !running.end.isBefore(end)
+                        },
+                        transform = { _, page ->
+                            page.copy(
+                                records = page.records.filter { !it.time.isBefore(start) && it.time.isBefore(end) },
+                            )
+                        },
+                        context = currentCoroutineContext()[CallPriority] ?: EmptyCoroutineContext,
+                    ) {
+                        readBodyTemperaturePagesUncoalesced(start, end, pageSize, ascendingOrder)
+                    }
+                emitAll(pages)
+            }
+
+        private fun readBodyTemperaturePagesUncoalesced(
+            start: Instant,
+            end: Instant,
+            pageSize: Int,
+            ascendingOrder: Boolean,
+        ): Flow<BodyTemperaturePage> =
+            flow {
+                var pageToken: String? = null
+                do {
+                    val page = readBodyTemperaturePage(start, end, pageSize, pageToken, ascendingOrder)
+                    emit(page)
+                    pageToken = page.nextPageToken
+                } while (pageToken != null)
+            }
+
+        /**
+         * Reads a single page of body temperature records in [start, end), oldest first unless
+         * [ascendingOrder] is false. Pass the returned [BodyTemperaturePage.nextPageToken], with
+         * the same range and order, to read the following page.
+         */
+        suspend fun readBodyTemperaturePage(
+            start: Instant,
+            end: Instant,
+            pageSize: Int = DEFAULT_PAGE_SIZE,
+            pageToken: String? = null,
+            ascendingOrder: Boolean = true,
+        ): BodyTemperaturePage {
+            require(pageSize in 1..MAX_PAGE_SIZE) { "pageSize must be between 1 and $MAX_PAGE_SIZE" }
+
+            val request =
+                ReadRecordsRequest(
+                    recordType = BodyTemperatureRecord::class,
+                    timeRangeFilter = TimeRangeFilter.between(start, end),
+                    ascendingOrder = ascendingOrder,
+                    pageSize = pageSize,
+                    pageToken = pageToken,
+                )
+            val response = callHealthConnect { healthConnectClient.readRecords(request) }
+
+            return BodyTemperaturePage(
+                records = response.records.map { toBodyTemperature(it) },
+                nextPageToken = response.pageToken?.takeIf { it.isNotEmpty() },
+            )
+        }
+
+        /**
+         * Reads [start, end) as consecutive time slices of [sliceWidth], with at most [maxConcurrency]
+         * slices in flight at once. Slices are emitted in time order, so the result has the same
+         * ordering as [readBodyTemperatures] while long ranges no longer wait on one sequential page chain.
+         * With [ascendingOrder] false, the newest slice comes first and each is read newest first.
+         */
+        fun readBodyTemperaturesSharded(
+            start: Instant,
+            end: Instant,
+            sliceWidth: Duration = DEFAULT_SLICE_WIDTH,
+            maxConcurrency: Int = DEFAULT_SHARD_CONCURRENCY,
+            pageSize: Int = DEFAULT_PAGE_SIZE,
+            ascendingOrder: Boolean = true,
         ): Flow<BodyTemperature> =
             flow {
-                val request =
-                    ReadRecordsRequest(
-                        recordType = BodyTemperatureRecord::class,
-                        timeRangeFilter = TimeRangeFilter.between(start, end),
-                    )
-                val response = healthConnectClient.readRecords(request)
-
-                for (record in response.records) {
-                    // Extract user info from clientRecordId if available
-                    val userInfo = extractUserInfoFromMetadata(record.metadata.clientRecordId)
-
-                    emit(
-                        BodyTemperature(
-                            recordId = record.metadata.id,
-                            temperature = record.temperature,
-                            time = record.time,
-                            zoneOffset = record.zoneOffset ?: ZoneId.systemDefault().rules.getOffset(record.time),
-                            userInfo = userInfo,
-                        ),
-                    )
+                require(!sliceWidth.isNegative && !sliceWidth.isZero) { "sliceWidth must be positive" }
+                require(maxConcurrency > 0) { "maxConcurrency must be positive" }
+
+                val slices =
+                    splitTimeRange(start, end, sliceWidth)
+                        .let { if (ascendingOrder) it else it.asReversed() }
+                        .iterator()
+                coroutineScope {
+                    // Sliding window: bounds both the number of concurrent reads and the
+                    // number of finished slices buffered while an earlier slice is still loading.
+                    val inFlight = ArrayDeque<Deferred<List<BodyTemperature>>>()
+                    while (slices.hasNext() || inFlight.isNotEmpty()) {
+                        while (inFlight.size < maxConcurrency && slices.hasNext()) {
+                            val (sliceStart, sliceEnd) = slices.next()
+                            inFlight.addLast(
+                                async {
+                                    readBodyTemperaturePages(sliceStart, sliceEnd, pageSize, ascendingOrder)
+                                        .toList()
+                                        .flatMap { it.records }
+                                },
+                            )
+                        }
+                        inFlight.removeFirst().await().forEach { emit(it) }
+                    }
                 }
             }
 
+        private fun toBodyTemperature(record: BodyTemperatureRecord): BodyTemperature {
+            // Extract user info from clientRecordId if available
+            val userInfo = ClientRecordIdCodec.decode(record.metadata.clientRecordId)
+
+            return BodyTemperature(
+                recordId = record.metadata.id,
+                temperature = record.temperature,
+                time = record.time,
+                zoneOffset = record.zoneOffset ?: ZoneId.systemDefault().rules.getOffset(record.time),
+                userInfo = userInfo,
+            )
+        }
+
+        /**
+         * Returns a changes token for body temperature records. Pass it to
+         * [getBodyTemperatureChanges] to receive only what changed after this call.
+         */
+        suspend fun getBodyTemperatureChangesToken(): String =
+            callHealthConnect {
+                healthConnectClient.getChangesToken(
+                    ChangesTokenRequest(recordTypes = setOf(BodyTemperatureRecord::class)),
+                )
+            }
+
+        /**
+         * Collects all body temperature changes since [changesToken], following further
+         * pages while Health Connect reports more. Changes are applied in order, so a record
+         * that was updated and then deleted is only reported as deleted.
+         */
+        suspend fun getBodyTemperatureChanges(changesToken: String): BodyTemperatureChanges {
+            val upserts = LinkedHashMap<String, BodyTemperature>()
+            val deletedIds = LinkedHashSet<String>()
+            var token = changesToken
+
+            do {
+                val response = callHealthConnect { healthConnectClient.getChanges(token) }
+                if (response.changesTokenExpired) {
+                    // Changes may have been missed, so nothing cached can be trusted
+                    rangeCache.clear()
+                    return BodyTemperatureChanges(tokenExpired = true)
+                }
+
+                for (change in response.changes) {
+                    when (change) {
+                        is UpsertionChange -> {
+                            val record = change.record as? BodyTemperatureRecord ?: continue
+                            val temperature = toBodyTemperature(record)
+                            rangeCache.removeRecord(temperature.recordId)
+                            rangeCache.invalidate(temperature.time)
+                            deletedIds.remove(temperature.recordId)
+                            upserts[temperature.recordId] = temperature
+                        }
+                        is DeletionChange -> {
+                            rangeCache.removeRecord(change.recordId)
+                            upserts.remove(change.recordId)
+                            deletedIds.add(change.recordId)
+                        }
+                    }
+                }
+                token = response.nextChangesToken
+            } while (response.hasMore)
+
+            return BodyTemperatureChanges(
+                upserts = upserts.values.toList(),
+                deletedIds = deletedIds.toList(),
+                nextChangesToken = token,
+            )
+        }
+
         suspend fun writeBodyTemperature(
             temperature: Double,
             time: Instant = Instant.now(),
             userInfo: UserInfo? = null,
         ) {
-            val zoneOffset = ZoneId.systemDefault().rules.getOffset(time)
-
-            // Create clientRecordId with user metadata
-            val clientRecordId =
-                if (userInfo != null) {
-                    createClientRecordId(userInfo)
-                } else {
-                    null
-                }
-
-            val record =
-                BodyTemperatureRecord(
-                    temperature = Temperature.celsius(temperature),
-                    time = time,
-                    zoneOffset = zoneOffset,
-                    metadata =
-                        Metadata(
-                            recordingMethod = Metadata.RECORDING_METHOD_ACTIVELY_RECORDED,
-                            clientRecordId = clientRecordId,
-                        ),
-                )
+            val record = createBodyTemperatureRecord(BodyTemperatureWrite(temperature, time, userInfo))
 
-            healthConnectClient.insertRecords(listOf(record))
+            try {
+                callHealthConnect { healthConnectClient.insertRecords(listOf(record)) }
+            } finally {
+                // Also after a failure, which may have happened after the record was stored
+                rangeCache.invalidate(time)
+            }
         }
 
         /**
-         * Creates a client record ID that encodes user information
-         * Format: userName|userType|userId
+         * Writes [readings] in chunks of [chunkSize] records per insertRecords call.
+         * A failing chunk does not stop the remaining chunks; see [BulkWriteResult.failedReadings]
+         * and [retryFailedWrites].
          */
-        private fun createClientRecordId(userInfo: UserInfo): String {
-            return buildString {
-                append(userInfo.userName.replace("|", "_"))
-                append("|")
-                append(userInfo.userType.name)
-                if (userInfo.userId != null) {
-                    append("|")
-                    append(userInfo.userId)
+        suspend fun writeBodyTemperatures(
+            readings: List<BodyTemperatureWrite>,
+            chunkSize: Int = DEFAULT_WRITE_CHUNK_SIZE,
+        ): BulkWriteResult {
+            require(chunkSize > 0) { "chunkSize must be positive" }
+
+            val chunks =
+                readings.chunked(chunkSize).mapIndexed { index, chunk ->
+                    writeChunk(index, chunk)
                 }
-            }
+            return BulkWriteResult(chunks)
         }
 
         /**
-         * Extracts user information from client record ID
+         * Rewrites only the failed chunks of a previous [writeBodyTemperatures] call and
+         * returns the combined result.
          */
-        private fun extractUserInfoFromMetadata(clientRecordId: String?): UserInfo? {
-            if (clientRecordId.isNullOrBlank()) return null
+        suspend fun retryFailedWrites(result: BulkWriteResult): BulkWriteResult {
+            val chunks =
+                result.chunks.map { chunk ->
+                    if (chunk.isSuccess) chunk else writeChunk(chunk.index, chunk.readings)
+                }
+            return BulkWriteResult(chunks)
+        }
 
+        private suspend fun writeChunk(
+            index: Int,
+            readings: List<BodyTemperatureWrite>,
+        ): ChunkWriteResult {
             return try {
-                val parts = clientRecordId.split("|")
-                if (parts.size >= 2) {
-                    UserInfo(
-                        userName = parts[0],
-                        userType = UserType.valueOf(parts[1]),
-                        userId = if (parts.size > 2) parts[2] else null,
-                    )
-                } else {
-                    null
-                }
+                val records = readings.map { createBodyTemperatureRecord(it) }
+                val response = callHealthConnect { healthConnectClient.insertRecords(records) }
+                ChunkWriteResult(index, readings, insertedIds = response.recordIdsList)
+            } catch (e: CancellationException) {
+                throw e
             } catch (e: Exception) {
-                null
+                ChunkWriteResult(index, readings, insertedIds = emptyList(), error = e)
+            } finally {
+                readings.forEach { rangeCache.invalidate(it.time) }
             }
         }
 
+        private fun createBodyTemperatureRecord(reading: BodyTemperatureWrite): BodyTemperatureRecord {
+            val zoneOffset = ZoneId.systemDefault().rules.getOffset(reading.time)
+
+            // Create clientRecordId with user metadata
+            val clientRecordId = reading.userInfo?.let { ClientRecordIdCodec.encode(it) }
+
+            return BodyTemperatureRecord(
+                temperature = Temperature.celsius(reading.temperature),
+                time = reading.time,
+                zoneOffset = zoneOffset,
+                metadata =
+                    Metadata(
+                        recordingMethod = Metadata.RECORDING_METHOD_ACTIVELY_RECORDED,
+                        clientRecordId = clientRecordId,
+                    ),
+            )
+        }
+
+        /**
+         * Deletes a body temperature record. Failures are thrown as reported by Health Connect,
+         * so callers can tell a revoked permission or an exhausted quota from other errors.
+         */
         suspend fun deleteBodyTemperature(recordId: String) {
-            try {
+            callHealthConnect {
                 healthConnectClient.deleteRecords(
                     recordType = BodyTemperatureRecord::class,
                     recordIdsList = listOf(recordId),
                     clientRecordIdsList = emptyList(),
                 )
-            } catch (e: Exception) {
-                throw Exception("Failed to delete temperature record: ${e.message}")
+            }
+            rangeCache.removeRecord(recordId)
+        }
+
+        companion object {
+            /** Records requested per page when the caller does not specify a size. */
+            const val DEFAULT_PAGE_SIZE = 1000
+
+            /** Largest page size accepted by Health Connect. */
+            const val MAX_PAGE_SIZE = 5000
+
+            /** How long a permission check result is reused before asking Health Connect again. */
+            const val PERMISSION_CACHE_TTL_MILLIS = 30_000L
+
+            /** Width of each time slice for sharded reads. */
+            val DEFAULT_SLICE_WIDTH: Duration = Duration.ofDays(7)
+
+            /** Number of slices read concurrently in sharded reads. */
+            const val DEFAULT_SHARD_CONCURRENCY = 4
+
+            /** Records sent per insertRecords call in bulk writes. */
+            const val DEFAULT_WRITE_CHUNK_SIZE = 500
+
+            /**
+             * Splits [start, end) into consecutive half-open slices no wider than [sliceWidth].
+             */
+            internal fun splitTimeRange(
+                start: Instant,
+                end: Instant,
+                sliceWidth: Duration,
+            ): List<Pair<Instant, Instant>> {
+                val slices = mutableListOf<Pair<Instant, Instant>>()
+                var sliceStart = start
+                while (sliceStart < end) {
+                    val sliceEnd = minOf(sliceStart.plus(sliceWidth), end)
+                    slices.add(sliceStart to sliceEnd)
+                    sliceStart = sliceEnd
+                }
+                return slices
             }
         }
     }
@@ -155,3 +540,31 @@ data class BodyTemperature(
     val zoneOffset: ZoneOffset,
     val userInfo: UserInfo? = null,
 )
+
+/**
+ * A body temperature reading to be written to Health Connect.
+ */
+data class BodyTemperatureWrite(
+    val temperature: Double,
+    val time: Instant = Instant.now(),
+    val userInfo: UserInfo? = null,
+)
+
+/**
+ * Body temperature changes since a changes token. When [tokenExpired] is true the caller
+ * must do a full read and request a new token.
+ */
+data class BodyTemperatureChanges(
+    val upserts: List<BodyTemperature> = emptyList(),
+    val deletedIds: List<String> = emptyList(),
+    val nextChangesToken: String? = null,
+    val tokenExpired: Boolean = false,
+)
+
+/**
+ * One page of body temperature records. [nextPageToken] is null on the last page.
+ */
+data class BodyTemperaturePage(
+    val records: List<BodyTemperature>,
+    val nextPageToken: String?,
+)
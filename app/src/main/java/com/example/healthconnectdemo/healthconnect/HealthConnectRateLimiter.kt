@@ -0,0 +1,207 @@
+package com.example.healthconnectdemo.healthconnect
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Priority of a Health Connect call. Health Connect keeps separate quotas for apps in the
+ * foreground and in the background, so each priority draws from its own budget.
+ * Run sync or import work with `withContext(CallPriority.BACKGROUND)`; calls without a
+ * priority in their context are treated as [FOREGROUND].
+ */
+enum class CallPriority : CoroutineContext.Element {
+    FOREGROUND,
+    BACKGROUND,
+    ;
+
+    override val key: CoroutineContext.Key<*>
+        get() = Key
+
+    companion object Key : CoroutineContext.Key<CallPriority>
+}
+
+/**
+ * Token-bucket budget: bursts of up to [capacity] calls, refilled at [callsPerSecond].
+ */
+data class RateBudget(
+    val capacity: Int,
+    val callsPerSecond: Double,
+) {
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+        require(callsPerSecond > 0) { "callsPerSecond must be positive" }
+    }
+}
+
+/**
+ * Snapshot of [HealthConnectRateLimiter] metrics.
+ */
+data class RateLimiterMetrics(
+    val queueDepth: Int,
+    val maxQueueDepth: Int,
+    val throttledCalls: Long,
+    val totalThrottleMillis: Long,
+    val quotaErrors: Long,
+    val foregroundCallsPerSecond: Double,
+    val backgroundCallsPerSecond: Double,
+)
+
+/**
+ * Keeps Health Connect calls under the API quota.
+ *
+ * Calls wait in FIFO order for a token of their [CallPriority] budget instead of failing.
+ * When a call still hits a quota error, the refill rate of that budget is halved and the call
+ * is queued again, up to [maxQuotaRetries] times; each successful call then raises the rate
+ * again in small steps, up to the configured budget.
+ */
+class HealthConnectRateLimiter(
+    foregroundBudget: RateBudget = DEFAULT_FOREGROUND_BUDGET,
+    backgroundBudget: RateBudget = DEFAULT_BACKGROUND_BUDGET,
+    private val maxQuotaRetries: Int = DEFAULT_MAX_QUOTA_RETRIES,
+    private val nanoTime: () -> Long = System::nanoTime,
+) {
+    private inner class Bucket(val budget: RateBudget) {
+        // Waiters take turns on the mutex, which is fair, so the queue is served in order
+        val turn = Mutex()
+        private var tokens = budget.capacity.toDouble()
+        private var refilledAt = nanoTime()
+
+        var callsPerSecond = budget.callsPerSecond
+            private set
+
+        /**
+         * Takes a token and returns 0, or returns the nanoseconds until one is available.
+         */
+        @Synchronized
+        fun tryTake(): Long {
+            val now = nanoTime()
+            tokens = minOf(budget.capacity.toDouble(), tokens + (now - refilledAt) * callsPerSecond / NANOS_PER_SECOND)
+            refilledAt = now
+            if (tokens >= 1.0) {
+                tokens -= 1.0
+                return 0L
+            }
+            return maxOf(1L, ((1.0 - tokens) * NANOS_PER_SECOND / callsPerSecond).toLong())
+        }
+
+        @Synchronized
+        fun onSuccess() {
+            callsPerSecond = minOf(budget.callsPerSecond, callsPerSecond + budget.callsPerSecond * RATE_INCREASE_STEP)
+        }
+
+        @Synchronized
+        fun onQuotaError() {
+            callsPerSecond = maxOf(budget.callsPerSecond * MIN_RATE_FRACTION, callsPerSecond / 2)
+            // Drop any saved-up burst; the quota is evidently already used up
+            tokens = 0.0
+            refilledAt = nanoTime()
+        }
+    }
+
+    private val foreground = Bucket(foregroundBudget)
+    private val background = Bucket(backgroundBudget)
+
+    private val queueDepth = AtomicInteger()
+    private val maxQueueDepth = AtomicInteger()
+    private val throttledCalls = AtomicLong()
+    private val throttleNanos = AtomicLong()
+    private val quotaErrors = AtomicLong()
+
+    val metrics: RateLimiterMetrics
+        get() =
+            RateLimiterMetrics(
+                queueDepth = queueDepth.get(),
+                maxQueueDepth = maxQueueDepth.get(),
+                throttledCalls = throttledCalls.get(),
+                totalThrottleMillis = TimeUnit.NANOSECONDS.toMillis(throttleNanos.get()),
+                quotaErrors = quotaErrors.get(),
+                foregroundCallsPerSecond = foreground.callsPerSecond,
+                backgroundCallsPerSecond = background.callsPerSecond,
+            )
+
+    /**
+     * Runs [block] once a token of the caller's priority is available.
+     */
+    suspend fun <T> run(block: suspend () -> T): T {
+        val priority = coroutineContext[CallPriority] ?: CallPriority.FOREGROUND
+        val bucket = if (priority == CallPriority.BACKGROUND) background else foreground
+
+        var retries = 0
+        while (true) {
+            acquire(bucket)
+            try {
+                val result = block()
+                bucket.onSuccess()
+                return result
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                if (!isQuotaError(e)) throw e
+                quotaErrors.incrementAndGet()
+                bucket.onQuotaError()
+                if (retries++ >= maxQuotaRetries) throw e
+            }
+        }
+    }
+
+    private suspend fun acquire(bucket: Bucket) {
+        val depth = queueDepth.incrementAndGet()
+        maxQueueDepth.accumulateAndGet(depth, ::maxOf)
+        val waitStart = nanoTime()
+        var throttled = false
+        try {
+            bucket.turn.withLock {
+                while (true) {
+                    val waitNanos = bucket.tryTake()
+                    if (waitNanos == 0L) break
+                    throttled = true
+                    delay(TimeUnit.NANOSECONDS.toMillis(waitNanos + NANOS_PER_MILLI - 1))
+                }
+            }
+        } finally {
+            queueDepth.decrementAndGet()
+        }
+        if (throttled) {
+            throttledCalls.incrementAndGet()
+            throttleNanos.addAndGet(nanoTime() - waitStart)
+        }
+    }
+
+    companion object {
+        /** Budget for calls made while the app is in the foreground. */
+        val DEFAULT_FOREGROUND_BUDGET = RateBudget(capacity = 20, callsPerSecond = 10.0)
+
+        /** Background calls have a much smaller quota in Health Connect. */
+        val DEFAULT_BACKGROUND_BUDGET = RateBudget(capacity = 5, callsPerSecond = 1.0)
+
+        /** How often a call that hit the quota is queued again before its error is thrown. */
+        const val DEFAULT_MAX_QUOTA_RETRIES = 3
+
+        private const val NANOS_PER_SECOND = 1_000_000_000.0
+        private const val NANOS_PER_MILLI = 1_000_000L
+        private const val RATE_INCREASE_STEP = 0.05
+        private const val MIN_RATE_FRACTION = 0.05
+        private val QUOTA_MESSAGES = listOf("quota", "rate limit")
+
+        /**
+         * Health Connect reports an exhausted quota as a generic exception, so it is
+         * recognized by its message anywhere in the cause chain.
+         */
+        internal fun isQuotaError(error: Throwable): Boolean {
+            var current: Throwable? = error
+            while (current != null) {
+                val message = current.message?.lowercase()
+                if (message != null && QUOTA_MESSAGES.any { it in message }) return true
+                current = current.cause
+            }
+            return false
+        }
+    }
+}
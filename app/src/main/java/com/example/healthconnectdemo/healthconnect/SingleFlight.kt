@@ -0,0 +1,165 @@
+package com.example.healthconnectdemo.healthconnect
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.transformWhile
+import kotlinx.coroutines.launch
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
+
+/**
+ * Coalesces concurrent collections of the same upstream flow.
+ *
+ * The first collector for a key starts the upstream in [scope]; collectors that arrive while
+ * it is still running and whose key is covered by the running one share it and receive every
+ * item from the start. Only the last [MAX_REPLAY] items are kept for late collectors, so a
+ * long stream is not held in memory; once more were emitted, a new collector starts its own
+ * upstream instead. The upstream is cancelled once its last collector goes away.
+ */
+class SingleFlight<K, T>(
+    private val scope: CoroutineScope,
+) {
+    private sealed class Event<out T> {
+        class Item<T>(val index: Int, val value: T) : Event<T>()
+
+        object Completed : Event<Nothing>()
+
+        class Failed(val error: Throwable) : Event<Nothing>()
+    }
+
+    private inner class Call(val key: K) {
+        val events = MutableSharedFlow<Event<T>>(replay = MAX_REPLAY)
+        var job: Job? = null
+        var collectors = 0
+
+        // Events emitted so far; the call can be joined while the first is still replayed
+        var emitted = 0
+    }
+
+    private val lock = Any()
+    private val calls = mutableListOf<Call>()
+    private val executed = AtomicLong()
+    private val deduplicated = AtomicLong()
+
+    /** Number of upstream flows actually started. */
+    val executedCount: Long
+        get() = executed.get()
+
+    /** Number of collections served by an upstream that was already running. */
+    val deduplicatedCount: Long
+        get() = deduplicated.get()
+
+    /**
+     * Returns a flow that shares a running upstream whose key satisfies [covers], or starts
+     * [upstream] under [key]. Items from a shared upstream are passed through [transform],
+     * e.g. to narrow a wider result to the requested range. A newly started upstream runs in
+     * [scope] plus [context].
+     */
+    fun share(
+        key: K,
+        covers: (runningKey: K) -> Boolean = { it == key },
+        transform: (runningKey: K, item: T) -> T = { _, item -> item },
+        context: CoroutineContext = EmptyCoroutineContext,
+        upstream: () -> Flow<T>,
+    ): Flow<T> =
+        flow {
+            val call = acquire(key, covers, context, upstream)
+            var next = 0
+            var missed = false
+            try {
+                val items =
+                    call.events.transformWhile { event ->
+                        when (event) {
+                            is Event.Item -> {
+                                if (event.index != next) {
+                                    // Emitted past the replay before this collector subscribed
+                                    missed = true
+                                    return@transformWhile false
+                                }
+                                next++
+                                emit(if (call.key == key) event.value else transform(call.key, event.value))
+                                true
+                            }
+                            is Event.Completed -> false
+                            is Event.Failed -> throw event.error
+                        }
+                    }
+                emitAll(items)
+            } finally {
+                release(call)
+            }
+            // Nothing was emitted downstream yet, so reading on its own is transparent
+            if (missed) {
+                executed.incrementAndGet()
+                emitAll(upstream().flowOn(context))
+            }
+        }
+
+    private fun acquire(
+        key: K,
+        covers: (K) -> Boolean,
+        context: CoroutineContext,
+        upstream: () -> Flow<T>,
+    ): Call =
+        synchronized(lock) {
+            val running = calls.firstOrNull { it.emitted < MAX_REPLAY && covers(it.key) }
+            if (running != null) {
+                running.collectors++
+                deduplicated.incrementAndGet()
+                return@synchronized running
+            }
+
+            val call = Call(key)
+            call.collectors = 1
+            calls.add(call)
+            executed.incrementAndGet()
+            call.job =
+                scope.launch(context) {
+                    try {
+                        // Items emitted before the first collector subscribes would only be replayed
+                        call.events.subscriptionCount.first { it > 0 }
+                        upstream().collect { item -> call.events.emit(Event.Item(nextIndex(call), item)) }
+                        nextIndex(call)
+                        call.events.emit(Event.Completed)
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Throwable) {
+                        // Any failure, not only exceptions, must end the collectors waiting for items
+                        nextIndex(call)
+                        call.events.emit(Event.Failed(e))
+                    } finally {
+                        synchronized(lock) { calls.remove(call) }
+                    }
+                }
+            call
+        }
+
+    private fun nextIndex(call: Call): Int = synchronized(lock) { call.emitted++ }
+
+    private fun release(call: Call) {
+        val cancel =
+            synchronized(lock) {
+                call.collectors--
+                if (call.collectors == 0) {
+                    calls.remove(call)
+                    true
+                } else {
+                    false
+                }
+            }
+        if (cancel) call.job?.cancel()
+    }
+
+    companion object {
+        /** Items replayed to collectors joining a running upstream. */
+        const val MAX_REPLAY = 16
+    }
+}
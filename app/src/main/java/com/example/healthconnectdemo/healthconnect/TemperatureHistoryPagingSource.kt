@@ -0,0 +1,166 @@
+package com.example.healthconnectdemo.healthconnect
+
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import com.example.healthconnectdemo.model.TemperatureReading
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.withContext
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * Pages through the body temperature records in [start, end), newest first.
+ *
+ * Pages are keyed by time instead of Health Connect page tokens, which are only valid for
+ * the data they were issued for. Any page can therefore be read again after records were
+ * added or deleted, and a refresh after [invalidate] starts just above the row the user was
+ * looking at. The number of rows before a page is not known, so the list has no placeholders.
+ *
+ * Records are read through the day-window cache of [HealthConnectManager.readBodyTemperatures],
+ * so scrolling back to a dropped page, or reloading after a change, reads little or nothing
+ * from Health Connect.
+ *
+ * All of [load] runs on [backgroundDispatcher], from reading and converting the records to
+ * building and formatting the rows; Paging calls it in the scope that caches the pages,
+ * which is usually on the main thread.
+ *
+ * [onPageLoaded] sees the records of every page, on [backgroundDispatcher], with its key and
+ * the key of the page after it, e.g. to keep the newest pages for the next cold start. The
+ * first page has a null key.
+ */
+class TemperatureHistoryPagingSource(
+    private val healthConnectManager: HealthConnectManager,
+    private val start: Instant,
+    private val end: Instant,
+    private val backgroundDispatcher: CoroutineDispatcher,
+    private val onPageLoaded: (key: PageKey?, records: List<BodyTemperature>, nextKey: PageKey?) -> Unit =
+        { _, _, _ -> },
+) : PagingSource<TemperatureHistoryPagingSource.PageKey, TemperatureReading>() {
+    /**
+     * Where a page starts: at [time], reading towards older records when [older] is true and
+     * towards newer ones otherwise. Records at exactly [time] are part of the page unless
+     * their ID is in [shownIds], the rows at that time already on the neighbouring page, so
+     * records sharing a timestamp are neither repeated nor skipped.
+     */
+    data class PageKey(
+        val time: Instant,
+        val older: Boolean,
+        val shownIds: Set<String> = emptySet(),
+    )
+
+    // Reads the whole range from its newest record
+    private val top = PageKey(end.minusMillis(1), older = true)
+
+    // Width of the first span a page reads, from the density of the records read so far
+    @Volatile
+    private var spanMillis = MIN_SPAN.toMillis()
+
+    override suspend fun load(params: LoadParams<PageKey>): LoadResult<PageKey, TemperatureReading> {
+        val key = params.key ?: top
+
+        return try {
+            // Converting the records, building the rows and the snapshot all stay off the main thread
+            withContext(backgroundDispatcher) { loadPage(key, params) }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            LoadResult.Error(e)
+        }
+    }
+
+    private suspend fun loadPage(
+        key: PageKey,
+        params: LoadParams<PageKey>,
+    ): LoadResult<PageKey, TemperatureReading> {
+        val unseen = readBeyond(key, params.loadSize + 1)
+        val read = unseen.take(params.loadSize)
+        val hasMore = unseen.size > read.size
+        val records = if (key.older) read else read.asReversed()
+
+        val prevKey =
+            when {
+                key == top -> null
+                records.isEmpty() -> if (key.older) PageKey(key.time, older = false) else null
+                key.older || hasMore -> keyBeyond(key, records, records.first(), older = false)
+                else -> null
+            }
+        val nextKey =
+            when {
+                records.isEmpty() -> if (key.older) null else PageKey(key.time, older = true)
+                !key.older || hasMore -> keyBeyond(key, records, records.last(), older = true)
+                else -> null
+            }
+        onPageLoaded(params.key, records, nextKey)
+        return LoadResult.Page(data = records.map { TemperatureReading.from(it) }, prevKey = prevKey, nextKey = nextKey)
+    }
+
+    /**
+     * Reads at least [count] records from [key] on, in its direction, unless the range ends
+     * first. Records in [PageKey.shownIds] are left out.
+     *
+     * The records are read in spans of time through [HealthConnectManager.readBodyTemperatures],
+     * so they come from and fill its day-window cache. Every span is read whole, or it would
+     * not be cached. A span too sparse for the page is followed by one twice as wide, and the
+     * density found sizes the first span of the next page.
+     */
+    private suspend fun readBeyond(
+        key: PageKey,
+        count: Int,
+    ): List<BodyTemperature> {
+        val records = ArrayList<BodyTemperature>()
+        // Health Connect time ranges end exclusively; record times are whole milliseconds
+        var cursor = if (key.older) key.time.plusMillis(1) else key.time
+        var span = spanMillis
+        var readMillis = 0L
+        while (records.size < count && if (key.older) cursor.isAfter(start) else cursor.isBefore(end)) {
+            val spanStart = if (key.older) maxOf(cursor.minusMillis(span), start) else cursor
+            val spanEnd = if (key.older) cursor else minOf(cursor.plusMillis(span), end)
+            healthConnectManager
+                .readBodyTemperatures(spanStart, spanEnd, ascendingOrder = !key.older)
+                .collect { if (it.recordId !in key.shownIds) records.add(it) }
+            readMillis += spanEnd.toEpochMilli() - spanStart.toEpochMilli()
+            cursor = if (key.older) spanStart else spanEnd
+            span *= 2
+        }
+        if (records.isNotEmpty()) {
+            spanMillis = maxOf(readMillis * count / records.size, MIN_SPAN.toMillis())
+        }
+        return records
+    }
+
+    /**
+     * Key of the page beyond [edge], the newest or oldest of the [records] read from [key].
+     */
+    private fun keyBeyond(
+        key: PageKey,
+        records: List<BodyTemperature>,
+        edge: BodyTemperature,
+        older: Boolean,
+    ): PageKey {
+        val shownIds = records.filter { it.time == edge.time }.mapTo(HashSet()) { it.recordId }
+        // Going on in the same direction, the rows the key skipped are behind the page too
+        if (older == key.older && edge.time == key.time) shownIds.addAll(key.shownIds)
+        return PageKey(edge.time, older, shownIds)
+    }
+
+    /**
+     * Reloads from half a page above the row the user was at, so a refresh after a change
+     * keeps the scroll position. Near the top of the list, reloads from the top instead.
+     */
+    override fun getRefreshKey(state: PagingState<PageKey, TemperatureReading>): PageKey? {
+        val anchorPosition = state.anchorPosition ?: return null
+        val position = maxOf(anchorPosition - state.config.pageSize / 2, 0)
+        val first = state.closestItemToPosition(position) ?: return null
+        if (first == state.firstItemOrNull() && state.pages.firstOrNull()?.prevKey == null) return null
+        return PageKey(first.timestamp, older = true)
+    }
+
+    companion object {
+        /** Rows per page; a few screens of the history list. */
+        const val DEFAULT_PAGE_SIZE = 50
+
+        /** Narrowest span read at once; a window of the read cache. */
+        val MIN_SPAN: Duration = TemperatureRangeCache.DEFAULT_WINDOW_WIDTH
+    }
+}
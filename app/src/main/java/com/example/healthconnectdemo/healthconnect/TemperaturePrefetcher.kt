@@ -0,0 +1,119 @@
+package com.example.healthconnectdemo.healthconnect
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * Reads the windows just before a loaded range ahead of time, so paging back to them is
+ * served from the [TemperatureRangeCache] of [healthConnectManager]. The history list calls
+ * it for every page Paging loads towards older records, with the page's span as the window.
+ *
+ * Reads run at [CallPriority.BACKGROUND] and are cancelled by the next load or by [cancel].
+ * The number of windows read adapts to how the user navigates: it grows while they keep
+ * paging back into prefetched windows and shrinks when prefetched windows go unused.
+ */
+class TemperaturePrefetcher(
+    private val healthConnectManager: HealthConnectManager,
+    private val scope: CoroutineScope,
+    private val maxDepth: Int = DEFAULT_MAX_DEPTH,
+) {
+    private val lock = Any()
+    private var job: Job? = null
+    private var depth = MIN_DEPTH
+
+    // Range of the last load and the start of the oldest window prefetched for it
+    private var loadedStart: Instant? = null
+    private var prefetchedStart: Instant? = null
+
+    init {
+        require(maxDepth >= MIN_DEPTH) { "maxDepth must be at least $MIN_DEPTH" }
+    }
+
+    /** Number of older windows read after the next load. */
+    val currentDepth: Int
+        get() = synchronized(lock) { depth }
+
+    /**
+     * Call after [start, end) was loaded. Prefetches windows of [pageWidth] before [start] but
+     * not before [floor], replacing any prefetch still running for an earlier load.
+     */
+    fun onRangeLoaded(
+        start: Instant,
+        end: Instant,
+        pageWidth: Duration = Duration.between(start, end),
+        floor: Instant = Instant.MIN,
+    ) {
+        if (!end.isAfter(start) || pageWidth.isNegative || pageWidth.isZero) return
+
+        synchronized(lock) {
+            job?.cancel()
+            adaptDepth(start, pageWidth)
+            loadedStart = start
+            prefetchedStart = start.minus(pageWidth.multipliedBy(depth.toLong()))
+            job = launchPrefetch(start, pageWidth, depth, floor)
+        }
+    }
+
+    /**
+     * Stops a running prefetch, e.g. when the user leaves the history screen. Windows already
+     * read stay cached.
+     */
+    fun cancel() {
+        synchronized(lock) {
+            job?.cancel()
+            job = null
+        }
+    }
+
+    private fun adaptDepth(
+        start: Instant,
+        width: Duration,
+    ) {
+        val previousStart = loadedStart ?: return
+        val oldestPrefetched = prefetchedStart ?: return
+        // Small shifts of the start are refreshes of the same range, not navigation
+        val pagedBack = start.isBefore(previousStart.minus(width.dividedBy(2)))
+        depth =
+            when {
+                pagedBack && !start.isBefore(oldestPrefetched) -> minOf(depth + 1, maxDepth)
+                pagedBack -> maxDepth
+                else -> maxOf(depth - 1, MIN_DEPTH)
+            }
+    }
+
+    private fun launchPrefetch(
+        start: Instant,
+        width: Duration,
+        windows: Int,
+        floor: Instant,
+    ): Job =
+        scope.launch(CallPriority.BACKGROUND) {
+            var windowEnd = start
+            repeat(windows) {
+                if (!windowEnd.isAfter(floor)) return@launch
+                val windowStart = maxOf(windowEnd.minus(width), floor)
+                try {
+                    // Reading through the manager is what fills its cache. Newest first like the
+                    // history itself, so a load of this window can share a read still running.
+                    healthConnectManager.readBodyTemperatures(windowStart, windowEnd, ascendingOrder = false).collect {}
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    // Best effort: the window is simply read again when it is shown
+                    return@launch
+                }
+                windowEnd = windowStart
+            }
+        }
+
+    companion object {
+        private const val MIN_DEPTH = 1
+
+        /** Most windows read ahead after one load. */
+        const val DEFAULT_MAX_DEPTH = 3
+    }
+}
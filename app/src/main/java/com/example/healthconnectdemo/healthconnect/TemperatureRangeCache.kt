@@ -0,0 +1,170 @@
+package com.example.healthconnectdemo.healthconnect
+
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.TimeUnit
+
+/**
+ * Counters of [TemperatureRangeCache].
+ */
+data class RangeCacheStats(
+    val hits: Long,
+    val misses: Long,
+    val windowCount: Int,
+    val recordCount: Int,
+)
+
+/**
+ * In-memory cache of body temperature records in fixed, aligned time windows.
+ *
+ * A window holds every record in its span, so a range can be assembled from cached windows
+ * and only the missing ones need to be read. Windows expire after [ttl] because other apps
+ * can write to Health Connect too, and the least recently used windows are evicted once
+ * more than [maxRecords] records are cached.
+ */
+class TemperatureRangeCache(
+    private val windowWidth: Duration = DEFAULT_WINDOW_WIDTH,
+    private val maxRecords: Int = DEFAULT_MAX_RECORDS,
+    private val ttl: Duration = DEFAULT_TTL,
+    private val nanoTime: () -> Long = System::nanoTime,
+) {
+    private class Window(
+        val records: List<BodyTemperature>,
+        val loadedAtNanos: Long,
+    )
+
+    private val windowMillis = windowWidth.toMillis()
+
+    // Window index -> window, in access order
+    private val windows = LinkedHashMap<Long, Window>(16, 0.75f, true)
+    private var recordCount = 0
+    private var hits = 0L
+    private var misses = 0L
+
+    /**
+     * Incremented by every invalidation. Pass the value read before a fetch to [put], so a
+     * result that raced with a write is not cached.
+     */
+    @Volatile
+    var generation = 0L
+        private set
+
+    init {
+        require(windowMillis > 0) { "windowWidth must be positive" }
+        require(maxRecords > 0) { "maxRecords must be positive" }
+    }
+
+    val stats: RangeCacheStats
+        @Synchronized get() = RangeCacheStats(hits, misses, windows.size, recordCount)
+
+    /**
+     * Indices of the windows overlapping [start, end).
+     */
+    fun windowIndices(
+        start: Instant,
+        end: Instant,
+    ): LongRange {
+        if (!end.isAfter(start)) return LongRange.EMPTY
+        return windowIndex(start.toEpochMilli())..windowIndex(end.toEpochMilli() - 1)
+    }
+
+    fun windowStart(index: Long): Instant = Instant.ofEpochMilli(index * windowMillis)
+
+    /**
+     * Returns the records of window [index], oldest first, or null when it is not cached.
+     */
+    @Synchronized
+    operator fun get(index: Long): List<BodyTemperature>? {
+        val window = windows[index]
+        if (window != null && !isExpired(window)) {
+            hits++
+            return window.records
+        }
+        if (window != null) remove(index)
+        misses++
+        return null
+    }
+
+    /**
+     * Caches [records], the complete result of reading windows [fromIndex, toIndex) in either
+     * order, unless the cache was invalidated since [generation].
+     */
+    @Synchronized
+    fun put(
+        fromIndex: Long,
+        toIndex: Long,
+        records: List<BodyTemperature>,
+        generation: Long = this.generation,
+    ) {
+        if (generation != this.generation) return
+
+        val byWindow = records.groupBy { windowIndex(it.time.toEpochMilli()) }
+        val now = nanoTime()
+        for (index in fromIndex until toIndex) {
+            remove(index)
+            // Already sorted either way, which the sort handles in linear time
+            val windowRecords = byWindow[index].orEmpty().sortedBy { it.time }
+            windows[index] = Window(windowRecords, now)
+            recordCount += windowRecords.size
+        }
+        evict()
+    }
+
+    /**
+     * Drops the window containing [time], e.g. after a record was written there.
+     */
+    @Synchronized
+    fun invalidate(time: Instant) {
+        generation++
+        remove(windowIndex(time.toEpochMilli()))
+    }
+
+    /**
+     * Removes the record [recordId] from whichever window holds it.
+     */
+    @Synchronized
+    fun removeRecord(recordId: String) {
+        generation++
+        val entry = windows.entries.firstOrNull { (_, window) -> window.records.any { it.recordId == recordId } }
+        if (entry != null) {
+            // Replaced in place, so the window keeps its position in the LRU order
+            entry.setValue(Window(entry.value.records.filter { it.recordId != recordId }, entry.value.loadedAtNanos))
+            recordCount--
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        generation++
+        windows.clear()
+        recordCount = 0
+    }
+
+    private fun remove(index: Long) {
+        windows.remove(index)?.let { recordCount -= it.records.size }
+    }
+
+    private fun evict() {
+        val iterator = windows.values.iterator()
+        while (recordCount > maxRecords && iterator.hasNext()) {
+            recordCount -= iterator.next().records.size
+            iterator.remove()
+        }
+    }
+
+    private fun isExpired(window: Window): Boolean =
+        TimeUnit.NANOSECONDS.toMillis(nanoTime() - window.loadedAtNanos) >= ttl.toMillis()
+
+    private fun windowIndex(epochMillis: Long): Long = Math.floorDiv(epochMillis, windowMillis)
+
+    companion object {
+        /** Windows are whole UTC days. */
+        val DEFAULT_WINDOW_WIDTH: Duration = Duration.ofDays(1)
+
+        /** Upper bound on cached records across all windows. */
+        const val DEFAULT_MAX_RECORDS = 50_000
+
+        /** How long a window is trusted before it is read again. */
+        val DEFAULT_TTL: Duration = Duration.ofMinutes(5)
+    }
+}
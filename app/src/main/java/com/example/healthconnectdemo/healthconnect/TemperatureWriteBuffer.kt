@@ -0,0 +1,134 @@
+package com.example.healthconnectdemo.healthconnect
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+
+/**
+ * Write-behind buffer in front of Health Connect inserts.
+ *
+ * A reading submitted while no insert is running is written at once, so a lone reading
+ * never waits. Readings submitted while an insert is running are batched, and written as
+ * one insert when that insert ends, once [maxBatchSize] readings are pending,
+ * [maxDelayMillis] after the first pending reading, or on [flush], whichever comes first.
+ * Each submitted reading gets a [Deferred] that completes with its Health Connect record ID,
+ * or with the error of the insert that carried it.
+ *
+ * Inserts and the delayed flush run in [scope], which should outlive the screens submitting
+ * readings, so nothing accepted is lost when one of them closes.
+ */
+class TemperatureWriteBuffer(
+    private val healthConnectManager: HealthConnectManager,
+    private val scope: CoroutineScope,
+    private val maxBatchSize: Int = DEFAULT_MAX_BATCH_SIZE,
+    private val maxDelayMillis: Long = DEFAULT_MAX_DELAY_MILLIS,
+) {
+    private class PendingWrite(
+        val reading: BodyTemperatureWrite,
+        val completion: CompletableDeferred<String>,
+    )
+
+    private val lock = Any()
+    private val pending = mutableListOf<PendingWrite>()
+    private var flushJob: Job? = null
+    private var insertsRunning = 0
+
+    init {
+        require(maxBatchSize > 0) { "maxBatchSize must be positive" }
+        require(maxDelayMillis >= 0) { "maxDelayMillis must not be negative" }
+    }
+
+    val pendingCount: Int
+        get() = synchronized(lock) { pending.size }
+
+    fun submit(reading: BodyTemperatureWrite): Deferred<String> {
+        val completion = CompletableDeferred<String>()
+        val batch =
+            synchronized(lock) {
+                pending.add(PendingWrite(reading, completion))
+                if (insertsRunning == 0 || pending.size >= maxBatchSize) {
+                    drain()
+                } else {
+                    scheduleFlush()
+                    emptyList()
+                }
+            }
+        write(batch)
+        return completion
+    }
+
+    /**
+     * Writes all pending readings now, e.g. from a lifecycle callback.
+     */
+    fun flush() {
+        val batch = synchronized(lock) { drain() }
+        write(batch)
+    }
+
+    private fun scheduleFlush() {
+        if (flushJob == null) {
+            flushJob =
+                scope.launch {
+                    delay(maxDelayMillis)
+                    flush()
+                }
+        }
+    }
+
+    private fun drain(): List<PendingWrite> {
+        flushJob?.cancel()
+        flushJob = null
+        val batch = pending.toList()
+        pending.clear()
+        if (batch.isNotEmpty()) insertsRunning++
+        return batch
+    }
+
+    private fun write(batch: List<PendingWrite>) {
+        if (batch.isEmpty()) return
+
+        scope.launch {
+            try {
+                val result =
+                    healthConnectManager.writeBodyTemperatures(
+                        readings = batch.map { it.reading },
+                        chunkSize = maxBatchSize,
+                    )
+                var offset = 0
+                for (chunk in result.chunks) {
+                    chunk.readings.indices.forEach { i ->
+                        val completion = batch[offset + i].completion
+                        val recordId = chunk.insertedIds.getOrNull(i)
+                        when {
+                            chunk.error != null -> completion.completeExceptionally(chunk.error)
+                            recordId != null -> completion.complete(recordId)
+                            else -> completion.completeExceptionally(IllegalStateException("No record ID returned"))
+                        }
+                    }
+                    offset += chunk.readings.size
+                }
+            } catch (e: Exception) {
+                batch.forEach { it.completion.completeExceptionally(e) }
+            } finally {
+                // Readings batched behind this insert go out as soon as it is done
+                val next =
+                    synchronized(lock) {
+                        insertsRunning--
+                        if (insertsRunning == 0) drain() else emptyList()
+                    }
+                write(next)
+            }
+        }
+    }
+
+    companion object {
+        /** Pending readings that trigger an immediate flush. */
+        const val DEFAULT_MAX_BATCH_SIZE = 50
+
+        /** Longest time a reading waits in the buffer before being written. */
+        const val DEFAULT_MAX_DELAY_MILLIS = 1000L
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.healthconnectdemo.model
+
+import java.util.Locale
+
+/**
+ * Holds one value built by [create] for the current format locale and builds a new one when
+ * the user changes the language.
+ *
+ * The value must be immutable; it is published through a volatile field, so readers never
+ * lock. Threads that see a new locale at the same time may each build an equal value, which
+ * is harmless.
+ */
+internal class LocaleCache<T>(
+    private val create: (Locale) -> T,
+) {
+    private class Entry<T>(val locale: Locale, val value: T)
+
+    @Volatile
+    private var entry: Entry<T>? = null
+
+    fun get(): T {
+        val locale = Locale.getDefault(Locale.Category.FORMAT)
+        val current = entry
+        if (current != null && current.locale == locale) return current.value
+        return create(locale).also { entry = Entry(locale, it) }
+    }
+}
@@ -1,7 +1,10 @@
 package com.example.healthconnectdemo.model
 
+import com.example.healthconnectdemo.healthconnect.BodyTemperature
 import java.time.Instant
 import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
+import java.util.Locale
 
 data class TemperatureReading(
     val recordId: String,
@@ -12,9 +15,64 @@ data class TemperatureReading(
     val time: String,
     val zoneOffset: ZoneOffset,
 ) {
-    fun getFormattedCelsius(): String = String.format("%.1f°C", temperatureCelsius)
+    // Built with the reading, off the main thread, so showing it allocates nothing
+    private val formattedDateTime = "$date at $time"
 
-    fun getFormattedFahrenheit(): String = String.format("%.1f°F", temperatureFahrenheit)
+    fun getFormattedCelsius(): String = TemperatureText.celsius(temperatureCelsius)
 
-    fun getFormattedDateTime(): String = "$date at $time"
+    fun getFormattedFahrenheit(): String = TemperatureText.fahrenheit(temperatureCelsius, temperatureFahrenheit)
+
+    fun getFormattedDateTime(): String = formattedDateTime
+
+    /** "Low", "Normal" or "High". */
+    fun getStatus(): String = TemperatureText.status(temperatureCelsius)
+
+    companion object {
+        /**
+         * Creates a reading with the Fahrenheit value and the date and time texts derived from
+         * [temperatureCelsius], [timestamp] and [zoneOffset].
+         */
+        fun create(
+            recordId: String,
+            timestamp: Instant,
+            temperatureCelsius: Double,
+            zoneOffset: ZoneOffset,
+        ): TemperatureReading {
+            val formatters = sharedFormatters.get()
+            val zonedDateTime = timestamp.atZone(zoneOffset)
+
+            return TemperatureReading(
+                recordId = recordId,
+                timestamp = timestamp,
+                temperatureCelsius = temperatureCelsius,
+                temperatureFahrenheit = celsiusToFahrenheit(temperatureCelsius),
+                date = zonedDateTime.format(formatters.date),
+                time = zonedDateTime.format(formatters.time),
+                zoneOffset = zoneOffset,
+            )
+        }
+
+        /**
+         * Creates the reading shown for a record read from Health Connect.
+         */
+        fun from(temperature: BodyTemperature): TemperatureReading =
+            create(
+                recordId = temperature.recordId,
+                timestamp = temperature.time,
+                temperatureCelsius = temperature.temperature.inCelsius,
+                zoneOffset = temperature.zoneOffset,
+            )
+
+        fun celsiusToFahrenheit(celsius: Double): Double {
+            return (celsius * 9.0 / 5.0) + 32.0
+        }
+
+        // Formatters are immutable and thread-safe, so all readings share one pair per locale
+        private val sharedFormatters = LocaleCache(::Formatters)
+    }
+
+    private class Formatters(locale: Locale) {
+        val date: DateTimeFormatter = DateTimeFormatter.ofPattern("MMM dd, yyyy", locale)
+        val time: DateTimeFormatter = DateTimeFormatter.ofPattern("hh:mm a", locale)
+    }
 }
@@ -0,0 +1,154 @@
+package com.example.healthconnectdemo.model
+
+import java.time.Instant
+import java.time.ZoneOffset
+import java.util.UUID
+import kotlin.math.roundToInt
+
+/**
+ * Immutable, column-oriented list of temperature readings.
+ *
+ * Times are stored as epoch millis in a [LongArray] and temperatures as hundredths of a degree
+ * Celsius in a [ShortArray]. Zone offsets and users are dictionary coded in [IntArray]s, and
+ * record IDs in canonical UUID form are packed into two longs. A reading takes about 34 bytes
+ * instead of the several hundred bytes of a [TemperatureReading] with its strings.
+ */
+class TemperatureSeries private constructor(
+    val size: Int,
+    private val epochMillis: LongArray,
+    private val centiCelsius: ShortArray,
+    private val offsetCodes: IntArray,
+    private val offsets: List<ZoneOffset>,
+    private val userCodes: IntArray,
+    private val users: List<UserInfo>,
+    private val idHigh: LongArray,
+    private val idLow: LongArray,
+    // Index -> record ID, for the rare IDs that are not canonical UUIDs
+    private val otherIds: Map<Int, String>,
+) {
+    fun isEmpty(): Boolean = size == 0
+
+    fun epochMillis(index: Int): Long = epochMillis[checkIndex(index)]
+
+    fun timestamp(index: Int): Instant = Instant.ofEpochMilli(epochMillis(index))
+
+    fun celsius(index: Int): Double = centiCelsius[checkIndex(index)] / 100.0
+
+    fun zoneOffset(index: Int): ZoneOffset = offsets[offsetCodes[checkIndex(index)]]
+
+    fun userInfo(index: Int): UserInfo? = userCodes[checkIndex(index)].let { if (it == NO_USER) null else users[it] }
+
+    fun recordId(index: Int): String {
+        checkIndex(index)
+        if (otherIds.isNotEmpty()) otherIds[index]?.let { return it }
+        return UUID(idHigh[index], idLow[index]).toString()
+    }
+
+    private fun checkIndex(index: Int): Int {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index $index out of bounds for size $size")
+        return index
+    }
+
+    /**
+     * Collects readings into a [TemperatureSeries], growing its arrays as needed.
+     */
+    class Builder(initialCapacity: Int = DEFAULT_CAPACITY) {
+        private var size = 0
+        private var epochMillis = LongArray(maxOf(initialCapacity, 1))
+        private var centiCelsius = ShortArray(epochMillis.size)
+        private var offsetCodes = IntArray(epochMillis.size)
+        private var userCodes = IntArray(epochMillis.size)
+        private var idHigh = LongArray(epochMillis.size)
+        private var idLow = LongArray(epochMillis.size)
+        private val otherIds = HashMap<Int, String>()
+
+        private val offsets = mutableListOf<ZoneOffset>()
+        private val offsetDictionary = HashMap<ZoneOffset, Int>()
+        private val users = mutableListOf<UserInfo>()
+        private val userDictionary = HashMap<UserInfo, Int>()
+
+        fun add(
+            recordId: String,
+            epochMillis: Long,
+            celsius: Double,
+            zoneOffset: ZoneOffset,
+            userInfo: UserInfo? = null,
+        ): Builder {
+            val centi = (celsius * 100).roundToInt()
+            require(centi in Short.MIN_VALUE..Short.MAX_VALUE) { "Temperature out of range: $celsius" }
+
+            ensureCapacity()
+            val index = size++
+            this.epochMillis[index] = epochMillis
+            centiCelsius[index] = centi.toShort()
+            offsetCodes[index] = offsetCode(zoneOffset)
+            userCodes[index] = userCode(userInfo)
+
+            val uuid = parseCanonicalUuid(recordId)
+            if (uuid != null) {
+                idHigh[index] = uuid.mostSignificantBits
+                idLow[index] = uuid.leastSignificantBits
+            } else {
+                otherIds[index] = recordId
+            }
+            return this
+        }
+
+        fun build(): TemperatureSeries =
+            TemperatureSeries(
+                size = size,
+                epochMillis = epochMillis.copyOf(size),
+                centiCelsius = centiCelsius.copyOf(size),
+                offsetCodes = offsetCodes.copyOf(size),
+                offsets = offsets.toList(),
+                userCodes = userCodes.copyOf(size),
+                users = users.toList(),
+                idHigh = idHigh.copyOf(size),
+                idLow = idLow.copyOf(size),
+                otherIds = HashMap(otherIds),
+            )
+
+        private fun offsetCode(zoneOffset: ZoneOffset): Int =
+            offsetDictionary.getOrPut(zoneOffset) {
+                offsets.add(zoneOffset)
+                offsets.size - 1
+            }
+
+        private fun userCode(userInfo: UserInfo?): Int {
+            if (userInfo == null) return NO_USER
+            return userDictionary.getOrPut(userInfo) {
+                users.add(userInfo)
+                users.size - 1
+            }
+        }
+
+        private fun ensureCapacity() {
+            if (size < epochMillis.size) return
+            val capacity = epochMillis.size * 2
+            epochMillis = epochMillis.copyOf(capacity)
+            centiCelsius = centiCelsius.copyOf(capacity)
+            offsetCodes = offsetCodes.copyOf(capacity)
+            userCodes = userCodes.copyOf(capacity)
+            idHigh = idHigh.copyOf(capacity)
+            idLow = idLow.copyOf(capacity)
+        }
+    }
+
+    companion object {
+        private const val NO_USER = -1
+        private const val DEFAULT_CAPACITY = 16
+
+        /**
+         * Returns [value] as a UUID if it is one in canonical lowercase form, so storing it as
+         * two longs and printing it back yields the same string; null otherwise.
+         */
+        internal fun parseCanonicalUuid(value: String): UUID? {
+            if (value.length != 36) return null
+            return try {
+                UUID.fromString(value).takeIf { it.toString() == value }
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.healthconnectdemo.model
+
+import java.util.Locale
+
+/**
+ * Display texts of temperatures.
+ *
+ * Values on the 0.1° grid of the valid 20–45 °C range, which is everything a user can record,
+ * are looked up in tables built once per locale, so showing a reading formats nothing. Other
+ * values are formatted on demand.
+ */
+object TemperatureText {
+    const val MIN_CELSIUS = 20.0
+    const val MAX_CELSIUS = 45.0
+
+    const val STATUS_LOW = "Low"
+    const val STATUS_NORMAL = "Normal"
+    const val STATUS_HIGH = "High"
+
+    private const val MIN_TENTHS = 200
+    private const val MAX_TENTHS = 450
+
+    private val sharedTables = LocaleCache(::Tables)
+
+    /** E.g. "36.6°C". */
+    fun celsius(celsius: Double): String {
+        val index = tableIndex(celsius)
+        return if (index >= 0) sharedTables.get().celsius[index] else formatCelsius(celsius, currentLocale())
+    }
+
+    /**
+     * E.g. "97.9°F" for [fahrenheit], which is usually derived from [celsius] and then looked
+     * up by it.
+     */
+    fun fahrenheit(
+        celsius: Double,
+        fahrenheit: Double = TemperatureReading.celsiusToFahrenheit(celsius),
+    ): String {
+        val index = tableIndex(celsius)
+        return if (index >= 0 && fahrenheit == TemperatureReading.celsiusToFahrenheit(celsius)) {
+            sharedTables.get().fahrenheit[index]
+        } else {
+            formatFahrenheit(fahrenheit, currentLocale())
+        }
+    }
+
+    fun status(celsius: Double): String =
+        when {
+            celsius < 36.1 -> STATUS_LOW
+            celsius > 37.2 -> STATUS_HIGH
+            else -> STATUS_NORMAL
+        }
+
+    /** Index of [celsius] in the tables, or -1 when it is off the grid or out of range. */
+    private fun tableIndex(celsius: Double): Int {
+        val tenths = Math.round(celsius * 10)
+        if (tenths < MIN_TENTHS || tenths > MAX_TENTHS || tenths / 10.0 != celsius) return -1
+        return (tenths - MIN_TENTHS).toInt()
+    }
+
+    private fun currentLocale(): Locale = Locale.getDefault(Locale.Category.FORMAT)
+
+    private fun formatCelsius(
+        celsius: Double,
+        locale: Locale,
+    ): String = String.format(locale, "%.1f°C", celsius)
+
+    private fun formatFahrenheit(
+        fahrenheit: Double,
+        locale: Locale,
+    ): String = String.format(locale, "%.1f°F", fahrenheit)
+
+    private class Tables(locale: Locale) {
+        val celsius = Array(MAX_TENTHS - MIN_TENTHS + 1) { formatCelsius((MIN_TENTHS + it) / 10.0, locale) }
+        val fahrenheit =
+            Array(MAX_TENTHS - MIN_TENTHS + 1) {
+                formatFahrenheit(TemperatureReading.celsiusToFahrenheit((MIN_TENTHS + it) / 10.0), locale)
+            }
+    }
+}
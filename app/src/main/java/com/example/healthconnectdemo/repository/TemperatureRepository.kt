@@ -0,0 +1,40 @@
+package com.example.healthconnectdemo.repository
+
+import com.example.healthconnectdemo.healthconnect.HealthConnectManager
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+
+/**
+ * Process-wide owner of the temperature history's changes, shared by all screens.
+ *
+ * Both screens delete and record through the repository, and a screen showing the history
+ * follows [revision] to know when what it shows is out of date, e.g. to reload a paged list.
+ * The repository does not hold the history itself; each screen reads what it shows.
+ */
+class TemperatureRepository(
+    private val healthConnectManager: HealthConnectManager,
+) {
+    private val _revision = MutableStateFlow(0L)
+
+    /**
+     * Incremented by every delete and recorded reading made in this app.
+     */
+    val revision: StateFlow<Long> = _revision.asStateFlow()
+
+    /**
+     * Deletes the record [recordId] from Health Connect.
+     */
+    suspend fun delete(recordId: String) {
+        healthConnectManager.deleteBodyTemperature(recordId)
+        _revision.update { it + 1 }
+    }
+
+    /**
+     * Call once a reading has been written to Health Connect.
+     */
+    fun onRecorded() {
+        _revision.update { it + 1 }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.healthconnectdemo.storage
+
+import java.nio.ByteBuffer
+
+/**
+ * Appends values bit by bit, most significant bit first, into a growable byte array.
+ */
+internal class BitWriter(initialCapacity: Int = 256) {
+    private var bytes = ByteArray(initialCapacity)
+    private var bitPosition = 0
+
+    fun writeBit(bit: Boolean) {
+        writeBits(if (bit) 1L else 0L, 1)
+    }
+
+    /**
+     * Writes the lowest [count] bits of [value].
+     */
+    fun writeBits(
+        value: Long,
+        count: Int,
+    ) {
+        var remaining = count
+        while (remaining > 0) {
+            val byteIndex = bitPosition ushr 3
+            if (byteIndex >= bytes.size) {
+                bytes = bytes.copyOf(bytes.size * 2)
+            }
+            val free = 8 - (bitPosition and 7)
+            val take = minOf(free, remaining)
+            val chunk = ((value ushr (remaining - take)) and ((1L shl take) - 1)).toInt()
+            bytes[byteIndex] = (bytes[byteIndex].toInt() or (chunk shl (free - take))).toByte()
+            bitPosition += take
+            remaining -= take
+        }
+    }
+
+    fun toByteArray(): ByteArray = bytes.copyOf((bitPosition + 7) ushr 3)
+}
+
+/**
+ * Reads values written by [BitWriter] from [length] bytes of [buffer] starting at [offset].
+ */
+internal class BitReader(
+    private val buffer: ByteBuffer,
+    private val offset: Int,
+    private val length: Int,
+) {
+    private var bitPosition = 0
+
+    fun readBit(): Boolean = readBits(1) == 1L
+
+    fun readBits(count: Int): Long {
+        var result = 0L
+        var remaining = count
+        while (remaining > 0) {
+            val byteIndex = bitPosition ushr 3
+            if (byteIndex >= length) throw IllegalStateException("Read past end of block")
+            val available = 8 - (bitPosition and 7)
+            val take = minOf(available, remaining)
+            val current = buffer.get(offset + byteIndex).toInt() and 0xFF
+            val chunk = (current ushr (available - take)) and ((1 shl take) - 1)
+            result = (result shl take) or chunk.toLong()
+            bitPosition += take
+            remaining -= take
+        }
+        return result
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.healthconnectdemo.storage
+
+import com.example.healthconnectdemo.model.TemperatureSeries
+import java.nio.ByteBuffer
+import java.util.UUID
+
+/**
+ * Gorilla-style encoding of one block of temperature points.
+ *
+ * Timestamps are epoch milliseconds stored as delta-of-delta, in buckets sized for
+ * milliseconds: jitter of a few seconds, gaps of hours and gaps of weeks each have their own
+ * width, and only larger jumps take 64 bits. Temperatures are stored as the XOR against the
+ * previous value with leading/trailing zero windows, and zone offsets only when they change.
+ * Record IDs in canonical UUID form take 128 bits; anything else is stored as length-prefixed
+ * UTF-8. Every block starts from a fresh state so it can be decoded alone.
+ */
+internal object GorillaBlockCodec {
+    private const val OFFSET_BITS = 17
+    private const val OFFSET_BIAS = 1 shl 16
+    private const val ID_LENGTH_BITS = 16
+
+    // Delta-of-delta buckets in milliseconds: about ±8 s, ±2.3 h and ±24 days
+    private const val SHORT_BITS = 14
+    private const val MEDIUM_BITS = 24
+    private const val LONG_BITS = 32
+
+    fun encode(points: List<StoredTemperature>): ByteArray {
+        val writer = BitWriter()
+        var previousTime = 0L
+        var previousDelta = 0L
+        var previousValue = 0L
+        var previousLeading = -1
+        var previousTrailing = 0
+        var previousOffset = 0
+
+        points.forEachIndexed { index, point ->
+            // Timestamp
+            if (index == 0) {
+                writer.writeBits(point.epochMillis, 64)
+            } else {
+                val delta = point.epochMillis - previousTime
+                writeDeltaOfDelta(writer, delta - previousDelta)
+                previousDelta = delta
+            }
+            previousTime = point.epochMillis
+
+            // Temperature
+            val value = point.celsius.toRawBits()
+            if (index == 0) {
+                writer.writeBits(value, 64)
+            } else {
+                val xor = value xor previousValue
+                if (xor == 0L) {
+                    writer.writeBit(false)
+                } else {
+                    writer.writeBit(true)
+                    val leading = minOf(java.lang.Long.numberOfLeadingZeros(xor), 31)
+                    val trailing = java.lang.Long.numberOfTrailingZeros(xor)
+                    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                        writer.writeBit(false)
+                        writer.writeBits(xor ushr previousTrailing, 64 - previousLeading - previousTrailing)
+                    } else {
+                        val meaningful = 64 - leading - trailing
+                        writer.writeBit(true)
+                        writer.writeBits(leading.toLong(), 5)
+                        writer.writeBits((meaningful - 1).toLong(), 6)
+                        writer.writeBits(xor ushr trailing, meaningful)
+                        previousLeading = leading
+                        previousTrailing = trailing
+                    }
+                }
+            }
+            previousValue = value
+
+            // Zone offset
+            if (point.offsetSeconds == previousOffset) {
+                writer.writeBit(false)
+            } else {
+                writer.writeBit(true)
+                writer.writeBits((point.offsetSeconds + OFFSET_BIAS).toLong(), OFFSET_BITS)
+                previousOffset = point.offsetSeconds
+            }
+
+            writeRecordId(writer, point.recordId)
+        }
+        return writer.toByteArray()
+    }
+
+    fun decode(
+        buffer: ByteBuffer,
+        offset: Int,
+        length: Int,
+        count: Int,
+    ): List<StoredTemperature> {
+        val reader = BitReader(buffer, offset, length)
+        val points = ArrayList<StoredTemperature>(count)
+        var time = 0L
+        var delta = 0L
+        var value = 0L
+        var leading = 0
+        var trailing = 0
+        var zoneOffset = 0
+
+        for (index in 0 until count) {
+            if (index == 0) {
+                time = reader.readBits(64)
+            } else {
+                delta += readDeltaOfDelta(reader)
+                time += delta
+            }
+
+            if (index == 0) {
+                value = reader.readBits(64)
+            } else if (reader.readBit()) {
+                if (reader.readBit()) {
+                    leading = reader.readBits(5).toInt()
+                    val meaningful = reader.readBits(6).toInt() + 1
+                    trailing = 64 - leading - meaningful
+                }
+                val meaningful = 64 - leading - trailing
+                value = value xor (reader.readBits(meaningful) shl trailing)
+            }
+
+            if (reader.readBit()) {
+                zoneOffset = reader.readBits(OFFSET_BITS).toInt() - OFFSET_BIAS
+            }
+
+            points.add(
+                StoredTemperature(
+                    recordId = readRecordId(reader),
+                    epochMillis = time,
+                    celsius = Double.fromBits(value),
+                    offsetSeconds = zoneOffset,
+                ),
+            )
+        }
+        return points
+    }
+
+    private fun writeDeltaOfDelta(
+        writer: BitWriter,
+        deltaOfDelta: Long,
+    ) {
+        when (deltaOfDelta) {
+            0L -> writer.writeBit(false)
+            in bucketRange(SHORT_BITS) -> {
+                writer.writeBits(0b10, 2)
+                writer.writeBits(deltaOfDelta + bucketBias(SHORT_BITS), SHORT_BITS)
+            }
+            in bucketRange(MEDIUM_BITS) -> {
+                writer.writeBits(0b110, 3)
+                writer.writeBits(deltaOfDelta + bucketBias(MEDIUM_BITS), MEDIUM_BITS)
+            }
+            in bucketRange(LONG_BITS) -> {
+                writer.writeBits(0b1110, 4)
+                writer.writeBits(deltaOfDelta + bucketBias(LONG_BITS), LONG_BITS)
+            }
+            else -> {
+                writer.writeBits(0b1111, 4)
+                writer.writeBits(deltaOfDelta, 64)
+            }
+        }
+    }
+
+    private fun readDeltaOfDelta(reader: BitReader): Long {
+        if (!reader.readBit()) return 0L
+        if (!reader.readBit()) return reader.readBits(SHORT_BITS) - bucketBias(SHORT_BITS)
+        if (!reader.readBit()) return reader.readBits(MEDIUM_BITS) - bucketBias(MEDIUM_BITS)
+        if (!reader.readBit()) return reader.readBits(LONG_BITS) - bucketBias(LONG_BITS)
+        return reader.readBits(64)
+    }
+
+    // A bucket of n bits holds -(2^(n-1) - 1)..2^(n-1), stored with this bias added
+    private fun bucketBias(bits: Int): Long = (1L shl (bits - 1)) - 1
+
+    private fun bucketRange(bits: Int): LongRange = -bucketBias(bits)..bucketBias(bits) + 1
+
+    private fun writeRecordId(
+        writer: BitWriter,
+        recordId: String,
+    ) {
+        val uuid = TemperatureSeries.parseCanonicalUuid(recordId)
+        if (uuid != null) {
+            writer.writeBit(true)
+            writer.writeBits(uuid.mostSignificantBits, 64)
+            writer.writeBits(uuid.leastSignificantBits, 64)
+        } else {
+            val bytes = recordId.toByteArray(Charsets.UTF_8)
+            require(bytes.size < (1 shl ID_LENGTH_BITS)) { "Record ID too long" }
+            writer.writeBit(false)
+            writer.writeBits(bytes.size.toLong(), ID_LENGTH_BITS)
+            bytes.forEach { writer.writeBits(it.toLong(), 8) }
+        }
+    }
+
+    private fun readRecordId(reader: BitReader): String {
+        if (reader.readBit()) {
+            return UUID(reader.readBits(64), reader.readBits(64)).toString()
+        }
+        val length = reader.readBits(ID_LENGTH_BITS).toInt()
+        val bytes = ByteArray(length) { reader.readBits(8).toByte() }
+        return String(bytes, Charsets.UTF_8)
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.healthconnectdemo.storage
+
+import com.example.healthconnectdemo.healthconnect.BodyTemperature
+
+/**
+ * A body temperature point as kept on the device, e.g. in a [TemperatureSnapshot].
+ * User metadata is not kept.
+ */
+data class StoredTemperature(
+    val recordId: String,
+    val epochMillis: Long,
+    val celsius: Double,
+    val offsetSeconds: Int,
+)
+
+fun BodyTemperature.toStoredTemperature(): StoredTemperature =
+    StoredTemperature(
+        recordId = recordId,
+        epochMillis = time.toEpochMilli(),
+        celsius = temperature.inCelsius,
+        offsetSeconds = zoneOffset.totalSeconds,
+    )
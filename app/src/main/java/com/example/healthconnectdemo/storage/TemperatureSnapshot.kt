@@ -0,0 +1,80 @@
+package com.example.healthconnectdemo.storage
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * Single-file snapshot of the newest readings shown in the history, so a cold start can show
+ * them before Health Connect has answered.
+ *
+ * The points are one Gorilla-encoded block behind a short header. A write replaces the file
+ * atomically, so a reader sees either the old or the new snapshot. A missing, outdated or
+ * damaged snapshot reads as empty; it is only a cache.
+ */
+class TemperatureSnapshot(
+    private val file: File,
+) {
+    /**
+     * Returns the points of the last [write], in the order they were written.
+     */
+    @Synchronized
+    fun read(): List<StoredTemperature> {
+        if (!file.exists()) return emptyList()
+
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) return emptyList()
+                val count = input.readInt()
+                val length = input.readInt()
+                if (count < 0 || length < 0 || length > MAX_ENCODED_BYTES) return emptyList()
+                val bytes = ByteArray(length)
+                input.readFully(bytes)
+                GorillaBlockCodec.decode(ByteBuffer.wrap(bytes), 0, length, count)
+            }
+        } catch (e: IOException) {
+            emptyList()
+        } catch (e: RuntimeException) {
+            // Truncated or corrupted block
+            emptyList()
+        }
+    }
+
+    @Synchronized
+    fun write(points: List<StoredTemperature>) {
+        val encoded = GorillaBlockCodec.encode(points)
+        file.parentFile?.mkdirs()
+        val temp = File(file.path + ".tmp")
+        DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { output ->
+            output.writeInt(MAGIC)
+            output.writeInt(VERSION)
+            output.writeInt(points.size)
+            output.writeInt(encoded.size)
+            output.write(encoded)
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    @Synchronized
+    fun clear() {
+        file.delete()
+    }
+
+    companion object {
+        private const val MAGIC = 0x54534e50 // "TSNP"
+
+        // 2: timestamp buckets sized for milliseconds
+        private const val VERSION = 2
+
+        // Far above any snapshot worth showing; guards against reading a damaged length
+        private const val MAX_ENCODED_BYTES = 1 shl 20
+    }
+}
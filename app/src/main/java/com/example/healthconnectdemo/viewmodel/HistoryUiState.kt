@@ -0,0 +1,16 @@
+package com.example.healthconnectdemo.viewmodel
+
+import java.time.Duration
+
+/**
+ * Everything [HistoryViewModel] shows besides the paged list, as one immutable value, so a
+ * change that touches several fields reaches the screen as a single update.
+ */
+data class HistoryUiState(
+    /** True while a delete is in progress. */
+    val isLoading: Boolean = false,
+    /** Error to show once; cleared by [HistoryViewModel.onErrorShown]. */
+    val errorMessage: String? = null,
+    /** Time until the list first showed rows, once measured. */
+    val timeToFirstContent: Duration? = null,
+)
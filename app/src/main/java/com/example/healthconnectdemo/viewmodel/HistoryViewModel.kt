@@ -1,16 +1,43 @@
 package com.example.healthconnectdemo.viewmodel
 
-import androidx.lifecycle.LiveData
-import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
+import com.example.healthconnectdemo.di.BackgroundDispatcher
 import com.example.healthconnectdemo.healthconnect.BodyTemperature
 import com.example.healthconnectdemo.healthconnect.HealthConnectManager
+import com.example.healthconnectdemo.healthconnect.TemperatureHistoryPagingSource
+import com.example.healthconnectdemo.healthconnect.TemperaturePrefetcher
 import com.example.healthconnectdemo.model.TemperatureReading
+import com.example.healthconnectdemo.repository.TemperatureRepository
+import com.example.healthconnectdemo.storage.StoredTemperature
+import com.example.healthconnectdemo.storage.TemperatureSnapshot
+import com.example.healthconnectdemo.storage.toStoredTemperature
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.drop
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.IOException
+import java.time.Duration
 import java.time.Instant
-import java.time.format.DateTimeFormatter
+import java.time.ZoneOffset
 import javax.inject.Inject
 
 @HiltViewModel
@@ -18,81 +45,264 @@ class HistoryViewModel
     @Inject
     constructor(
         private val healthConnectManager: HealthConnectManager,
+        private val temperatureRepository: TemperatureRepository,
+        private val historySnapshot: TemperatureSnapshot,
+        @BackgroundDispatcher private val backgroundDispatcher: CoroutineDispatcher,
     ) : ViewModel() {
-        private val _temperatureHistory = MutableLiveData<List<TemperatureReading>>()
-        val temperatureHistory: LiveData<List<TemperatureReading>> = _temperatureHistory
+        private val _uiState = MutableStateFlow(HistoryUiState())
 
-        private val _errorMessage = MutableLiveData<String>()
-        val errorMessage: LiveData<String> = _errorMessage
+        /**
+         * State of deletes, errors and the startup measurement. Being a [StateFlow], it conflates
+         * fast updates and skips values equal to the current one.
+         */
+        val uiState: StateFlow<HistoryUiState> = _uiState.asStateFlow()
 
-        private val _isLoading = MutableLiveData<Boolean>()
-        val isLoading: LiveData<Boolean> = _isLoading
+        // Start of the time-to-first-content measurement, null once it has been taken; main thread only
+        private var shownAtNanos: Long? = null
 
-        fun loadTemperatureHistory(
+        // Changes token of the paged list, taken before its first read; null until then
+        private var changesToken: String? = null
+
+        // Range of the paged history list and the source currently paging through it
+        private val pagedRange = MutableStateFlow<Pair<Instant, Instant>?>(null)
+        private var pagingSource: TemperatureHistoryPagingSource? = null
+
+        // Warms the read cache with the pages below the ones Paging has loaded
+        private val prefetcher = TemperaturePrefetcher(healthConnectManager, viewModelScope)
+
+        // Guards the snapshot records, touched from the background dispatcher
+        private val lock = Any()
+
+        // Newest records read from the top of the list, kept as the snapshot for the next visit,
+        // and the key of the page that continues them
+        private val newestRecords = ArrayList<StoredTemperature>()
+        private var newestNextKey: TemperatureHistoryPagingSource.PageKey? = null
+
+        /**
+         * History of the range set by [showRecentHistory], newest first, read page by page as
+         * the list scrolls. At most [MAX_PAGES_IN_MEMORY] pages are held; pages further away
+         * are dropped and read again when the list scrolls back to them.
+         *
+         * The snapshot of the newest rows from the last visit is emitted first, so the list
+         * has content before Health Connect answers; the pages read next are diffed into it.
+         * The list reloads around the current position after deletes and recordings made in
+         * this app, and after changes from other apps found by [refreshIfChanged].
+         */
+        @OptIn(ExperimentalCoroutinesApi::class)
+        val pagedHistory: Flow<PagingData<TemperatureReading>> =
+            pagedRange
+                .filterNotNull()
+                .flatMapLatest { (start, end) ->
+                    flow {
+                        coroutineScope {
+                            // Taken before the first page is read, so no change is missed
+                            val token = async { takeChangesToken() }
+                            val stale = readSnapshot(start, end)
+                            if (stale.isNotEmpty()) emit(PagingData.from(stale))
+                            changesToken = token.await()
+                        }
+                        emitAll(Pager(PAGING_CONFIG) { newPagingSource(start, end) }.flow)
+                    }
+                }
+                .cachedIn(viewModelScope)
+
+        init {
+            // Deletes and new readings from any screen; the new source reloads from the pages
+            // around the current position
+            viewModelScope.launch {
+                temperatureRepository.revision.drop(1).collect { pagingSource?.invalidate() }
+            }
+        }
+
+        /**
+         * Pages through the [window] before now. Does nothing once a range is shown, so the
+         * list and its scroll position survive configuration changes.
+         */
+        fun showRecentHistory(window: Duration) {
+            if (pagedRange.value != null) return
+            shownAtNanos = System.nanoTime()
+            val end = Instant.now()
+            pagedRange.value = end.minus(window) to end
+        }
+
+        /**
+         * Reloads the paged list if Health Connect reports changes since it was read, e.g.
+         * made by another app while the screen was in the background. When nothing changed,
+         * this costs a single changes request and the list stays as it is.
+         */
+        fun refreshIfChanged() {
+            val token = changesToken ?: return
+            viewModelScope.launch {
+                val changes =
+                    try {
+                        // The changed records are converted as they are read
+                        withContext(backgroundDispatcher) { healthConnectManager.getBodyTemperatureChanges(token) }
+                    } catch (e: Exception) {
+                        // Checked again on the next refresh
+                        return@launch
+                    }
+                when {
+                    changes.tokenExpired -> {
+                        changesToken = takeChangesToken()
+                        pagingSource?.invalidate()
+                    }
+                    changes.upserts.isNotEmpty() || changes.deletedIds.isNotEmpty() -> {
+                        changesToken = changes.nextChangesToken
+                        pagingSource?.invalidate()
+                    }
+                    else -> changesToken = changes.nextChangesToken
+                }
+            }
+        }
+
+        private suspend fun takeChangesToken(): String? =
+            try {
+                healthConnectManager.getBodyTemperatureChangesToken()
+            } catch (e: Exception) {
+                // Without a token the list is only refreshed by this app's own changes
+                null
+            }
+
+        private fun newPagingSource(
             start: Instant,
             end: Instant,
+        ): TemperatureHistoryPagingSource =
+            TemperatureHistoryPagingSource(
+                healthConnectManager,
+                start,
+                end,
+                backgroundDispatcher,
+                ::onPageLoaded,
+            ).also { pagingSource = it }
+
+        /**
+         * Called on the background dispatcher for every page read from Health Connect; a null
+         * [key] is the page at the top of the list.
+         */
+        private fun onPageLoaded(
+            key: TemperatureHistoryPagingSource.PageKey?,
+            records: List<BodyTemperature>,
+            nextKey: TemperatureHistoryPagingSource.PageKey?,
         ) {
-            viewModelScope.launch {
+            prefetchBelow(key, records, nextKey)
+
+            val snapshot =
+                synchronized(lock) {
+                    // Only the newest pages, in order from the top of the list, make up the snapshot
+                    when {
+                        key == null -> newestRecords.clear()
+                        key != newestNextKey || newestRecords.size >= SNAPSHOT_SIZE -> return
+                    }
+                    records
+                        .take(SNAPSHOT_SIZE - newestRecords.size)
+                        .forEach { newestRecords.add(it.toStoredTemperature()) }
+                    newestNextKey = nextKey
+                    newestRecords.toList()
+                }
+            viewModelScope.launch(Dispatchers.IO) {
                 try {
-                    _isLoading.value = true
-                    _errorMessage.value = ""
+                    historySnapshot.write(snapshot)
+                } catch (e: IOException) {
+                    // Only a cache; the next visit waits for Health Connect instead
+                }
+            }
+        }
 
-                    val readings = mutableListOf<TemperatureReading>()
+        /**
+         * Reads ahead of the user scrolling down: the windows below a page loaded towards older
+         * records, each as wide as the page's span, go into the read cache at background
+         * priority. Pages loaded on the way back up do not move the prefetch.
+         */
+        private fun prefetchBelow(
+            key: TemperatureHistoryPagingSource.PageKey?,
+            records: List<BodyTemperature>,
+            nextKey: TemperatureHistoryPagingSource.PageKey?,
+        ) {
+            if (key?.older == false || nextKey == null || records.isEmpty()) return
+            val (start, end) = pagedRange.value ?: return
+            val pageStart = records.last().time
+            val pageEnd = key?.time ?: end
+            prefetcher.onRangeLoaded(pageStart, pageEnd, floor = start)
+        }
 
-                    healthConnectManager.readBodyTemperatures(start, end).collect { bodyTemp ->
-                        readings.add(convertToTemperatureReading(bodyTemp))
-                    }
+        /**
+         * Stops reading ahead, e.g. when the history screen is no longer visible. Pages already
+         * read stay cached.
+         */
+        fun cancelPrefetch() {
+            prefetcher.cancel()
+        }
 
-                    // Sort by time descending (newest first)
-                    val sortedReadings = readings.sortedByDescending { it.timestamp }
-                    _temperatureHistory.value = sortedReadings
-                } catch (e: Exception) {
-                    _errorMessage.value = "Error loading temperature history: ${e.message}"
-                    _temperatureHistory.value = emptyList()
-                } finally {
-                    _isLoading.value = false
-                }
+        private suspend fun readSnapshot(
+            start: Instant,
+            end: Instant,
+        ): List<TemperatureReading> {
+            val startMillis = start.toEpochMilli()
+            val endMillis = end.toEpochMilli()
+            val points = withContext(Dispatchers.IO) { historySnapshot.read() }
+            return withContext(backgroundDispatcher) {
+                points
+                    .filter { it.epochMillis >= startMillis && it.epochMillis < endMillis }
+                    .map { point ->
+                        TemperatureReading.create(
+                            recordId = point.recordId,
+                            timestamp = Instant.ofEpochMilli(point.epochMillis),
+                            temperatureCelsius = point.celsius,
+                            zoneOffset = ZoneOffset.ofTotalSeconds(point.offsetSeconds),
+                        )
+                    }
             }
         }
 
+        /**
+         * Call when the list first shows rows, snapshot or read, to take the time-to-first-content
+         * measurement. Only the first call after [showRecentHistory] counts.
+         */
+        fun onContentShown() {
+            val shownAt = shownAtNanos ?: return
+            shownAtNanos = null
+            _uiState.update { it.copy(timeToFirstContent = Duration.ofNanos(System.nanoTime() - shownAt)) }
+        }
+
         fun deleteTemperatureReading(recordId: String) {
             viewModelScope.launch {
                 try {
-                    _isLoading.value = true
-                    healthConnectManager.deleteBodyTemperature(recordId)
-
-                    // Remove from current list
-                    val currentList = _temperatureHistory.value ?: emptyList()
-                    _temperatureHistory.value = currentList.filter { it.recordId != recordId }
+                    _uiState.update { it.copy(isLoading = true) }
+                    // Reloads the paged list through the repository's revision
+                    temperatureRepository.delete(recordId)
                 } catch (e: Exception) {
-                    _errorMessage.value = "Error deleting temperature: ${e.message}"
+                    _uiState.update { it.copy(errorMessage = "Error deleting temperature: ${e.message}") }
                 } finally {
-                    _isLoading.value = false
+                    _uiState.update { it.copy(isLoading = false) }
                 }
             }
         }
 
-        private fun convertToTemperatureReading(bodyTemp: BodyTemperature): TemperatureReading {
-            val celsius = bodyTemp.temperature.inCelsius
-            val fahrenheit = celsiusToFahrenheit(celsius)
+        /**
+         * Clears the error once the screen has shown it.
+         */
+        fun onErrorShown() {
+            _uiState.update { it.copy(errorMessage = null) }
+        }
 
-            val dateFormatter = DateTimeFormatter.ofPattern("MMM dd, yyyy")
-            val timeFormatter = DateTimeFormatter.ofPattern("hh:mm a")
+        companion object {
+            /** Rows per Health Connect read for the paged list. */
+            const val PAGE_SIZE = TemperatureHistoryPagingSource.DEFAULT_PAGE_SIZE
 
-            val zonedDateTime = bodyTemp.time.atZone(bodyTemp.zoneOffset)
+            /** Pages kept in memory; pages further away are dropped and read again when needed. */
+            const val MAX_PAGES_IN_MEMORY = 6
 
-            return TemperatureReading(
-                recordId = bodyTemp.recordId,
-                timestamp = bodyTemp.time,
-                temperatureCelsius = celsius,
-                temperatureFahrenheit = fahrenheit,
-                date = zonedDateTime.format(dateFormatter),
-                time = zonedDateTime.format(timeFormatter),
-                zoneOffset = bodyTemp.zoneOffset,
-            )
-        }
+            /** Newest rows saved for the next cold start; a few screens of the list. */
+            const val SNAPSHOT_SIZE = PAGE_SIZE * 4
 
-        private fun celsiusToFahrenheit(celsius: Double): Double {
-            return (celsius * 9.0 / 5.0) + 32.0
+            private val PAGING_CONFIG =
+                PagingConfig(
+                    pageSize = PAGE_SIZE,
+                    prefetchDistance = PAGE_SIZE,
+                    // Rows are paged by time, so the number of rows around a page is unknown
+                    enablePlaceholders = false,
+                    initialLoadSize = PAGE_SIZE,
+                    maxSize = PAGE_SIZE * MAX_PAGES_IN_MEMORY,
+                )
         }
     }
@@ -0,0 +1,13 @@
+package com.example.healthconnectdemo.viewmodel
+
+/**
+ * Everything the main screen shows from [MainViewModel], as one immutable value.
+ */
+data class MainUiState(
+    /** Whether all Health Connect permissions are granted, null until checked. */
+    val permissionStatus: Boolean? = null,
+    /** Outcome of the last recording to show once; cleared by [MainViewModel.onTemperatureRecordedShown]. */
+    val temperatureRecorded: Result<String>? = null,
+    /** Error to show once; cleared by [MainViewModel.onErrorShown]. */
+    val errorMessage: String? = null,
+)
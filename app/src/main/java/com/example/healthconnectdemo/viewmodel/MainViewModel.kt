@@ -1,12 +1,19 @@
 package com.example.healthconnectdemo.viewmodel
 
-import androidx.lifecycle.LiveData
-import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import com.example.healthconnectdemo.healthconnect.BodyTemperature
+import com.example.healthconnectdemo.di.ApplicationScope
+import com.example.healthconnectdemo.healthconnect.BodyTemperatureWrite
 import com.example.healthconnectdemo.healthconnect.HealthConnectManager
+import com.example.healthconnectdemo.healthconnect.TemperatureWriteBuffer
+import com.example.healthconnectdemo.repository.TemperatureRepository
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.async
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
 import java.time.Instant
 import javax.inject.Inject
@@ -16,28 +23,29 @@ class MainViewModel
     @Inject
     constructor(
         private val healthConnectManager: HealthConnectManager,
+        private val temperatureRepository: TemperatureRepository,
+        @ApplicationScope private val applicationScope: CoroutineScope,
     ) : ViewModel() {
-        private val _permissionStatus = MutableLiveData<Boolean>()
-        val permissionStatus: LiveData<Boolean> = _permissionStatus
+        private val _uiState = MutableStateFlow(MainUiState())
 
-        private val _temperatureRecorded = MutableLiveData<Result<String>>()
-        val temperatureRecorded: LiveData<Result<String>> = _temperatureRecorded
-
-        private val _temperatureHistory = MutableLiveData<List<BodyTemperature>>()
-        val temperatureHistory: LiveData<List<BodyTemperature>> = _temperatureHistory
-
-        private val _errorMessage = MutableLiveData<String>()
-        val errorMessage: LiveData<String> = _errorMessage
+        /**
+         * State of the main screen. Being a [StateFlow], it conflates fast updates and skips
+         * values equal to the current one.
+         */
+        val uiState: StateFlow<MainUiState> = _uiState.asStateFlow()
 
         val permissions = healthConnectManager.permissions
 
+        // Buffered readings are still written after this screen is gone
+        private val writeBuffer = TemperatureWriteBuffer(healthConnectManager, applicationScope)
+
         fun checkPermissions() {
             viewModelScope.launch {
                 try {
                     val hasPermissions = healthConnectManager.hasAllPermissions()
-                    _permissionStatus.value = hasPermissions
+                    _uiState.update { it.copy(permissionStatus = hasPermissions) }
                 } catch (e: Exception) {
-                    _errorMessage.value = "Error checking permissions: ${e.message}"
+                    _uiState.update { it.copy(errorMessage = "Error checking permissions: ${e.message}") }
                 }
             }
         }
@@ -46,41 +54,52 @@ class MainViewModel
             viewModelScope.launch {
                 try {
                     if (temperature < 20.0 || temperature > 45.0) {
-                        _temperatureRecorded.value =
-                            Result.failure(
-                                IllegalArgumentException("Please enter a valid temperature between 20°C and 45°C"),
-                            )
+                        val invalid =
+                            IllegalArgumentException("Please enter a valid temperature between 20°C and 45°C")
+                        _uiState.update { it.copy(temperatureRecorded = Result.failure(invalid)) }
                         return@launch
                     }
 
-                    healthConnectManager.writeBodyTemperature(
-                        temperature = temperature,
-                        time = Instant.now(),
-                    )
+                    // Returns as soon as the buffered insert carrying this reading completes
+                    val reading =
+                        BodyTemperatureWrite(
+                            temperature = temperature,
+                            time = Instant.now(),
+                        )
+                    // In the application scope, so the history still hears of the reading when this
+                    // screen is gone before the insert completes
+                    applicationScope
+                        .async {
+                            writeBuffer.submit(reading).await()
+                            temperatureRepository.onRecorded()
+                        }.await()
 
-                    _temperatureRecorded.value = Result.success("Temperature recorded: $temperature°C")
+                    val recorded = Result.success("Temperature recorded: $temperature°C")
+                    _uiState.update { it.copy(temperatureRecorded = recorded) }
                 } catch (e: Exception) {
-                    _temperatureRecorded.value = Result.failure(e)
-                    _errorMessage.value = "Error recording temperature: ${e.message}"
+                    _uiState.update {
+                        it.copy(
+                            temperatureRecorded = Result.failure(e),
+                            errorMessage = "Error recording temperature: ${e.message}",
+                        )
+                    }
                 }
             }
         }
 
-        fun loadTemperatureHistory(
-            start: Instant,
-            end: Instant,
-        ) {
-            viewModelScope.launch {
-                try {
-                    val temperatures = mutableListOf<BodyTemperature>()
-                    healthConnectManager.readBodyTemperatures(start, end).collect { temp ->
-                        temperatures.add(temp)
-                    }
-                    _temperatureHistory.value = temperatures
-                } catch (e: Exception) {
-                    _errorMessage.value = "Error loading temperature history: ${e.message}"
-                }
-            }
+        fun onTemperatureRecordedShown() {
+            _uiState.update { it.copy(temperatureRecorded = null) }
+        }
+
+        fun onErrorShown() {
+            _uiState.update { it.copy(errorMessage = null) }
+        }
+
+        /**
+         * Writes any buffered readings immediately, e.g. when the screen stops.
+         */
+        fun flushPendingWrites() {
+            writeBuffer.flush()
         }
 
         fun validateTemperatureInput(input: String): Boolean {
@@ -91,4 +110,9 @@ class MainViewModel
                 false
             }
         }
+
+        override fun onCleared() {
+            writeBuffer.flush()
+            super.onCleared()
+        }
     }
@@ -0,0 +1,65 @@
+package com.example.healthconnectdemo.adapter
+
+import com.example.healthconnectdemo.model.TemperatureReading
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import java.time.Instant
+import java.time.ZoneOffset
+
+@DisplayName("RowChanges Tests")
+class RowChangesTest {
+    private val time = Instant.parse("2025-03-01T08:00:00Z")
+
+    private fun reading(
+        celsius: Double = 36.6,
+        timestamp: Instant = time,
+    ) = TemperatureReading.create("a", timestamp, celsius, ZoneOffset.UTC)
+
+    // Stands in for the payloads PagingDataAdapter dispatches for placeholders
+    private enum class PagingPayload { ITEM_TO_PLACEHOLDER }
+
+    @Nested
+    @DisplayName("Change Detection Tests")
+    inner class BetweenTests {
+        @Test
+        @DisplayName("Should flag only the views whose values changed")
+        fun `should flag only the views whose values changed`() {
+            assertEquals(RowChanges.TEMPERATURE, RowChanges.between(reading(), reading(celsius = 37.0)))
+            assertEquals(RowChanges.DATE_TIME, RowChanges.between(reading(), reading(timestamp = time.plusSeconds(60))))
+            assertEquals(
+                RowChanges.ALL,
+                RowChanges.between(reading(), reading(celsius = 37.0, timestamp = time.plusSeconds(60))),
+            )
+        }
+    }
+
+    @Nested
+    @DisplayName("Payload Bind Tests")
+    inner class CombineTests {
+        @Test
+        @DisplayName("Should combine the flags of several payloads")
+        fun `should combine the flags of several payloads`() {
+            // Given
+            val payloads = listOf<Any>(RowChanges.TEMPERATURE, RowChanges.DATE_TIME)
+
+            // When
+            val changes = RowChanges.combine(payloads)
+
+            // Then
+            assertEquals(RowChanges.ALL, changes)
+        }
+
+        @Test
+        @DisplayName("Should ask for a full bind when a payload is not ours")
+        fun `should ask for a full bind when a payload is not ours`() {
+            // Given
+            val payloads = listOf(RowChanges.TEMPERATURE, PagingPayload.ITEM_TO_PLACEHOLDER)
+
+            // When
+            val changes = RowChanges.combine(payloads)
+
+            // Then
+            assertNull(changes)
+        }
+    }
+}
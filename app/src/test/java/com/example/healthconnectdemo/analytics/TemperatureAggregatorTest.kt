@@ -0,0 +1,117 @@
+package com.example.healthconnectdemo.analytics
+
+import com.example.healthconnectdemo.TestUtils
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import java.time.Instant
+import java.time.LocalDateTime
+import java.time.ZoneOffset
+
+@ExperimentalCoroutinesApi
+@DisplayName("TemperatureAggregator Tests")
+class TemperatureAggregatorTest {
+    private val aggregator = TemperatureAggregator()
+
+    @Test
+    @DisplayName("Should compute statistics per day")
+    fun `should compute statistics per day`() =
+        runTest {
+            // Given
+            val temperatures =
+                listOf(
+                    TestUtils.createMockBodyTemperature("1", 36.0, Instant.parse("2025-03-01T08:00:00Z")),
+                    TestUtils.createMockBodyTemperature("2", 38.0, Instant.parse("2025-03-01T20:00:00Z")),
+                    TestUtils.createMockBodyTemperature("3", 37.0, Instant.parse("2025-03-02T08:00:00Z")),
+                )
+
+            // When
+            val stats = aggregator.aggregate(temperatures, AggregationPeriod.DAY, StandardTestDispatcher(testScheduler))
+
+            // Then
+            assertEquals(2, stats.size)
+            val first = stats[0]
+            assertEquals(LocalDateTime.parse("2025-03-01T00:00"), first.start)
+            assertEquals(2, first.count)
+            assertEquals(36.0, first.minCelsius)
+            assertEquals(38.0, first.maxCelsius)
+            assertEquals(37.0, first.meanCelsius, 1e-9)
+            assertEquals(1.0, first.standardDeviationCelsius, 1e-9)
+        }
+
+    @Test
+    @DisplayName("Should use each record's zone offset for bucket boundaries")
+    fun `should use zone offset for bucket boundaries`() =
+        runTest {
+            // Given - 22:00 UTC is already the next day at +05:30
+            val temperatures =
+                listOf(
+                    TestUtils.createMockBodyTemperature(
+                        "1",
+                        37.0,
+                        Instant.parse("2025-03-01T22:00:00Z"),
+                        ZoneOffset.ofHoursMinutes(5, 30),
+                    ),
+                )
+
+            // When
+            val stats = aggregator.aggregate(temperatures, AggregationPeriod.DAY, StandardTestDispatcher(testScheduler))
+
+            // Then
+            assertEquals(LocalDateTime.parse("2025-03-02T00:00"), stats.single().start)
+        }
+
+    @Test
+    @DisplayName("Should give the same result for chunked and single-pass reduction")
+    fun `should give the same result for chunked reduction`() =
+        runTest {
+            // Given
+            val start = Instant.parse("2025-01-01T00:00:00Z")
+            val temperatures =
+                (0 until 1000).map { index ->
+                    TestUtils.createMockBodyTemperature(
+                        recordId = "$index",
+                        temperatureCelsius = 36.0 + (index % 17) / 5.0,
+                        time = start.plusSeconds(index * 3000L),
+                    )
+                }
+            val dispatcher = StandardTestDispatcher(testScheduler)
+
+            // When
+            val singlePass = aggregator.aggregate(temperatures, AggregationPeriod.WEEK, dispatcher)
+            val chunked = aggregator.aggregate(temperatures, AggregationPeriod.WEEK, dispatcher, chunkSize = 64)
+
+            // Then
+            assertEquals(singlePass.size, chunked.size)
+            singlePass.zip(chunked).forEach { (expected, actual) ->
+                assertEquals(expected.start, actual.start)
+                assertEquals(expected.count, actual.count)
+                assertEquals(expected.meanCelsius, actual.meanCelsius, 1e-9)
+                assertEquals(expected.standardDeviationCelsius, actual.standardDeviationCelsius, 1e-9)
+            }
+            assertEquals(1000, chunked.sumOf { it.count })
+        }
+
+    @Test
+    @DisplayName("Should start weeks on Monday and months on the first")
+    fun `should start weeks on Monday and months on the first`() {
+        // Given - 2025-03-05 is a Wednesday
+        val local = LocalDateTime.parse("2025-03-05T13:45").toEpochSecond(ZoneOffset.UTC)
+
+        // Then
+        assertEquals(
+            LocalDateTime.parse("2025-03-03T00:00").toEpochSecond(ZoneOffset.UTC),
+            TemperatureAggregator.bucketStart(local, AggregationPeriod.WEEK),
+        )
+        assertEquals(
+            LocalDateTime.parse("2025-03-01T00:00").toEpochSecond(ZoneOffset.UTC),
+            TemperatureAggregator.bucketStart(local, AggregationPeriod.MONTH),
+        )
+        assertEquals(
+            LocalDateTime.parse("2025-03-05T13:00").toEpochSecond(ZoneOffset.UTC),
+            TemperatureAggregator.bucketStart(local, AggregationPeriod.HOUR),
+        )
+    }
+}
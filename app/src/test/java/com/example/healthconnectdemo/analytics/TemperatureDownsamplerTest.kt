@@ -0,0 +1,108 @@
+package com.example.healthconnectdemo.analytics
+
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import java.time.Instant
+import kotlin.math.sin
+
+@DisplayName("TemperatureDownsampler Tests")
+class TemperatureDownsamplerTest {
+    private val start = Instant.parse("2024-01-01T00:00:00Z")
+    private val end = Instant.parse("2025-01-01T00:00:00Z")
+
+    @Nested
+    @DisplayName("Budget Tests")
+    inner class BudgetTests {
+        @Test
+        @DisplayName("Should return every reading when they fall in separate buckets")
+        fun `should return every reading when they fall in separate buckets`() {
+            // Given
+            val downsampler = TemperatureDownsampler(start, end, pointBudget = 100)
+            val points = createPoints(10, stepMillis = 30L * 24 * 3600 * 1000)
+
+            // When
+            points.reversed().forEach { downsampler.add(it.epochMillis, it.celsius) }
+
+            // Then
+            assertEquals(points, downsampler.points())
+        }
+
+        @Test
+        @DisplayName("Should stay within the budget in every mode")
+        fun `should stay within the budget in every mode`() {
+            DownsamplingMode.entries.forEach { mode ->
+                // Given
+                val downsampler = TemperatureDownsampler(start, end, pointBudget = 200, mode = mode)
+
+                // When
+                createPoints(35_000).forEach { downsampler.add(it.epochMillis, it.celsius) }
+
+                // Then
+                val result = downsampler.points()
+                assertTrue(result.size <= 200, "$mode returned ${result.size} points")
+                assertEquals(result.sortedBy { it.epochMillis }, result)
+                assertEquals(35_000, downsampler.readingCount)
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Shape Tests")
+    inner class ShapeTests {
+        @Test
+        @DisplayName("Should keep a single fever spike")
+        fun `should keep a single fever spike`() {
+            DownsamplingMode.entries.forEach { mode ->
+                // Given
+                val downsampler = TemperatureDownsampler(start, end, pointBudget = 100, mode = mode)
+                val points = createPoints(20_000).toMutableList()
+                points[12_345] = points[12_345].copy(celsius = 40.5)
+
+                // When
+                points.forEach { downsampler.add(it.epochMillis, it.celsius) }
+
+                // Then
+                assertTrue(downsampler.points().contains(points[12_345]), "$mode dropped the spike")
+            }
+        }
+
+        @Test
+        @DisplayName("Should give the same result for pages in any order")
+        fun `should give the same result for pages in any order`() {
+            // Given
+            val points = createPoints(5_000)
+            val oneShot = TemperatureDownsampler(start, end, pointBudget = 64)
+            val paged = TemperatureDownsampler(start, end, pointBudget = 64)
+
+            // When
+            points.forEach { oneShot.add(it.epochMillis, it.celsius) }
+            points.chunked(700).reversed().forEach { page -> page.forEach { paged.add(it.epochMillis, it.celsius) } }
+
+            // Then
+            assertEquals(oneShot.points(), paged.points())
+        }
+
+        @Test
+        @DisplayName("Should ignore readings outside the range")
+        fun `should ignore readings outside the range`() {
+            // Given
+            val downsampler = TemperatureDownsampler(start, end)
+
+            // When
+            downsampler.add(start.toEpochMilli() - 1, 37.0)
+            downsampler.add(end.toEpochMilli(), 37.0)
+
+            // Then
+            assertTrue(downsampler.points().isEmpty())
+        }
+    }
+
+    // Helper Methods
+    private fun createPoints(
+        count: Int,
+        stepMillis: Long = 15 * 60 * 1000L,
+    ): List<ChartPoint> =
+        (0 until count).map { index ->
+            ChartPoint(start.toEpochMilli() + index * stepMillis, 36.8 + 0.4 * sin(index / 40.0))
+        }
+}
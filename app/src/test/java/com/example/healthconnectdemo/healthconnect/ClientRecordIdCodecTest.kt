@@ -0,0 +1,105 @@
+package com.example.healthconnectdemo.healthconnect
+
+import com.example.healthconnectdemo.model.UserInfo
+import com.example.healthconnectdemo.model.UserType
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+
+@DisplayName("ClientRecordIdCodec Tests")
+class ClientRecordIdCodecTest {
+    @Nested
+    @DisplayName("Round Trip Tests")
+    inner class RoundTripTests {
+        @Test
+        @DisplayName("Should round-trip every user type with and without an ID")
+        fun `should round-trip every user type`() {
+            UserType.entries.forEach { type ->
+                val withId = UserInfo("Jane Doe", type, "user-42")
+                val withoutId = UserInfo("Jane Doe", type)
+
+                assertEquals(withId, ClientRecordIdCodec.decode(ClientRecordIdCodec.encode(withId)))
+                assertEquals(withoutId, ClientRecordIdCodec.decode(ClientRecordIdCodec.encode(withoutId)))
+            }
+        }
+
+        @Test
+        @DisplayName("Should write the versioned binary format")
+        fun `should write the versioned binary format`() {
+            // When
+            val clientRecordId = ClientRecordIdCodec.encode(UserInfo("Jane", UserType.CAREGIVER, "c-7"))
+
+            // Then
+            assertEquals(ClientRecordIdCodec.BINARY_PREFIX, clientRecordId.first())
+            assertTrue(clientRecordId.drop(1).all { it.isLetterOrDigit() || it == '-' || it == '_' })
+            assertTrue(clientRecordId.length < "Jane|CAREGIVER|c-7".length)
+        }
+
+        @Test
+        @DisplayName("Should keep separators, backslashes and non-ASCII characters")
+        fun `should keep separators and backslashes`() {
+            // Given
+            val userInfo = UserInfo("a|b\\c| ünï", UserType.NURSE, "id|\\1")
+
+            // When
+            val decoded = ClientRecordIdCodec.decode(ClientRecordIdCodec.encode(userInfo))
+
+            // Then
+            assertEquals(userInfo, decoded)
+        }
+
+        @Test
+        @DisplayName("Should return the same instance for a repeated ID")
+        fun `should return the same instance for a repeated ID`() {
+            // Given
+            val clientRecordId = ClientRecordIdCodec.encode(UserInfo("Repeated", UserType.SELF))
+
+            // When
+            val first = ClientRecordIdCodec.decode(clientRecordId)
+            val second = ClientRecordIdCodec.decode(String(clientRecordId.toCharArray()))
+
+            // Then
+            assertSame(first, second)
+        }
+    }
+
+    @Nested
+    @DisplayName("Decoding Tests")
+    inner class DecodingTests {
+        @Test
+        @DisplayName("Should decode IDs in the original format")
+        fun `should decode IDs in the original format`() {
+            assertEquals(
+                UserInfo("John_Smith", UserType.DOCTOR, "d-1"),
+                ClientRecordIdCodec.decode("John_Smith|DOCTOR|d-1"),
+            )
+            assertEquals(UserInfo("C:\\name", UserType.OTHER), ClientRecordIdCodec.decode("C:\\name|OTHER"))
+            assertEquals(UserInfo("~tilde", UserType.SELF), ClientRecordIdCodec.decode("~tilde|SELF"))
+        }
+
+        @Test
+        @DisplayName("Should keep backslashes in IDs in the original format")
+        fun `should keep backslashes in IDs in the original format`() {
+            assertEquals(
+                UserInfo("back\\", UserType.PATIENT, "id\\"),
+                ClientRecordIdCodec.decode("back\\|PATIENT|id\\|ignored"),
+            )
+            assertEquals(
+                UserInfo("a\\\\b", UserType.NURSE, "\\\\"),
+                ClientRecordIdCodec.decode("a\\\\b|NURSE|\\\\"),
+            )
+        }
+
+        @Test
+        @DisplayName("Should return null for IDs without user info")
+        fun `should return null for IDs without user info`() {
+            assertNull(ClientRecordIdCodec.decode(null))
+            assertNull(ClientRecordIdCodec.decode(" "))
+            assertNull(ClientRecordIdCodec.decode("no-separator"))
+            assertNull(ClientRecordIdCodec.decode("name|UNKNOWN"))
+            assertNull(ClientRecordIdCodec.decode("name|patient"))
+            assertNull(ClientRecordIdCodec.decode("~AgA"))
+            assertNull(ClientRecordIdCodec.decode("~AQAF"))
+            assertNull(ClientRecordIdCodec.decode("~not*base64"))
+        }
+    }
+}
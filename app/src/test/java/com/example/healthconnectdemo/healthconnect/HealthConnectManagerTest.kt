@@ -0,0 +1,417 @@
+package com.example.healthconnectdemo.healthconnect
+
+import android.content.Context
+import androidx.health.connect.client.HealthConnectClient
+import androidx.health.connect.client.PermissionController
+import androidx.health.connect.client.records.BodyTemperatureRecord
+import androidx.health.connect.client.records.metadata.Metadata
+import androidx.health.connect.client.request.ReadRecordsRequest
+import androidx.health.connect.client.response.InsertRecordsResponse
+import androidx.health.connect.client.response.ReadRecordsResponse
+import androidx.health.connect.client.time.TimeRangeFilter
+import androidx.health.connect.client.units.Temperature
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.extension.ExtendWith
+import org.mockito.Mock
+import org.mockito.junit.jupiter.MockitoExtension
+import org.mockito.kotlin.any
+import org.mockito.kotlin.argThat
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneOffset
+import java.time.temporal.ChronoUnit
+
+@ExperimentalCoroutinesApi
+@ExtendWith(MockitoExtension::class)
+@DisplayName("HealthConnectManager Tests")
+class HealthConnectManagerTest {
+    @Mock
+    private lateinit var healthConnectClient: HealthConnectClient
+
+    @Mock
+    private lateinit var context: Context
+
+    private lateinit var manager: HealthConnectManager
+
+    private val end = Instant.parse("2025-01-31T00:00:00Z")
+    private val start = end.minus(30, ChronoUnit.DAYS)
+
+    @BeforeEach
+    fun setup() {
+        manager = HealthConnectManager(healthConnectClient, context)
+    }
+
+    @Nested
+    @DisplayName("Permission Cache Tests")
+    inner class PermissionCacheTests {
+        @Test
+        @DisplayName("Should reuse a recent permission check")
+        fun `should reuse a recent permission check`() =
+            runTest {
+                // Given
+                val permissionController = mock<PermissionController>()
+                whenever(healthConnectClient.permissionController).thenReturn(permissionController)
+                whenever(permissionController.getGrantedPermissions()).thenReturn(manager.permissions)
+
+                // When
+                val first = manager.hasAllPermissions()
+                val second = manager.hasAllPermissions()
+
+                // Then
+                assertTrue(first)
+                assertTrue(second)
+                verify(permissionController, times(1)).getGrantedPermissions()
+                assertTrue(manager.permissionStatus.first())
+            }
+
+        @Test
+        @DisplayName("Should ask Health Connect again after invalidation")
+        fun `should ask Health Connect again after invalidation`() =
+            runTest {
+                // Given
+                val permissionController = mock<PermissionController>()
+                whenever(healthConnectClient.permissionController).thenReturn(permissionController)
+                whenever(permissionController.getGrantedPermissions())
+                    .thenReturn(emptySet(), manager.permissions)
+
+                // When
+                val beforeGrant = manager.hasAllPermissions()
+                manager.invalidatePermissionCache()
+                val afterGrant = manager.hasAllPermissions()
+
+                // Then
+                assertFalse(beforeGrant)
+                assertTrue(afterGrant)
+                verify(permissionController, times(2)).getGrantedPermissions()
+            }
+
+        @Test
+        @DisplayName("Should update status from a permission result without IPC")
+        fun `should update status from a permission result`() =
+            runTest {
+                // When
+                manager.onPermissionsResult(manager.permissions)
+
+                // Then
+                assertTrue(manager.hasAllPermissions())
+                assertTrue(manager.permissionStatus.first())
+                verify(healthConnectClient, never()).permissionController
+            }
+    }
+
+    @Nested
+    @DisplayName("Paginated Read Tests")
+    inner class PaginatedReadTests {
+        @Test
+        @DisplayName("Should follow page tokens until the last page")
+        fun `should follow page tokens until the last page`() =
+            runTest {
+                // Given
+                val firstPage = createResponse(listOf(createRecord("1"), createRecord("2")), "token-2")
+                val secondPage = createResponse(listOf(createRecord("3")), null)
+                whenever(healthConnectClient.readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>()))
+                    .thenReturn(firstPage, secondPage)
+
+                // When
+                val temperatures = manager.readBodyTemperatures(start, end, pageSize = 2).toList()
+
+                // Then
+                assertEquals(listOf("1", "2", "3"), temperatures.map { it.recordId })
+                val captor = argumentCaptor<ReadRecordsRequest<BodyTemperatureRecord>>()
+                verify(healthConnectClient, times(2)).readRecords(captor.capture())
+                assertNull(captor.firstValue.pageToken)
+                assertEquals("token-2", captor.secondValue.pageToken)
+                assertEquals(2, captor.secondValue.pageSize)
+            }
+
+        @Test
+        @DisplayName("Should emit one page per response")
+        fun `should emit one page per response`() =
+            runTest {
+                // Given
+                val firstPage = createResponse(listOf(createRecord("1")), "token-2")
+                val secondPage = createResponse(listOf(createRecord("2")), "")
+                whenever(healthConnectClient.readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>()))
+                    .thenReturn(firstPage, secondPage)
+
+                // When
+                val pages = manager.readBodyTemperaturePages(start, end).toList()
+
+                // Then
+                assertEquals(2, pages.size)
+                assertEquals("token-2", pages[0].nextPageToken)
+                assertNull(pages[1].nextPageToken)
+            }
+
+        @Test
+        @DisplayName("Should reject page size outside the Health Connect limits")
+        fun `should reject invalid page size`() =
+            runTest {
+                assertThrows<IllegalArgumentException> {
+                    manager.readBodyTemperaturePage(start, end, pageSize = 0)
+                }
+            }
+    }
+
+    @Nested
+    @DisplayName("Sharded Read Tests")
+    inner class ShardedReadTests {
+        @Test
+        @DisplayName("Should split range into half-open slices")
+        fun `should split range into half-open slices`() {
+            // When
+            val slices = HealthConnectManager.splitTimeRange(start, start.plus(10, ChronoUnit.DAYS), Duration.ofDays(4))
+
+            // Then
+            assertEquals(3, slices.size)
+            assertEquals(start, slices.first().first)
+            assertEquals(slices[0].second, slices[1].first)
+            assertEquals(start.plus(10, ChronoUnit.DAYS), slices.last().second)
+        }
+
+        @Test
+        @DisplayName("Should read every slice and emit in time order")
+        fun `should read every slice and emit in time order`() =
+            runTest {
+                // Given
+                // Slices are read concurrently, so each response is matched to its slice
+                (0 until 3).forEach { index ->
+                    val sliceStart = start.plus(index.toLong(), ChronoUnit.DAYS)
+                    val response = createResponse(listOf(createRecord("$index", time = sliceStart)), null)
+                    val filter = TimeRangeFilter.between(sliceStart, sliceStart.plus(1, ChronoUnit.DAYS))
+                    val request = argThat<ReadRecordsRequest<BodyTemperatureRecord>> { timeRangeFilter == filter }
+                    whenever(healthConnectClient.readRecords(request)).thenReturn(response)
+                }
+
+                // When
+                val temperatures =
+                    manager.readBodyTemperaturesSharded(
+                        start = start,
+                        end = start.plus(3, ChronoUnit.DAYS),
+                        sliceWidth = Duration.ofDays(1),
+                        maxConcurrency = 2,
+                    ).toList()
+
+                // Then
+                verify(healthConnectClient, times(3)).readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>())
+                assertEquals(listOf("0", "1", "2"), temperatures.map { it.recordId })
+            }
+    }
+
+    @Nested
+    @DisplayName("Bulk Write Tests")
+    inner class BulkWriteTests {
+        @Test
+        @DisplayName("Should insert readings in chunks")
+        fun `should insert readings in chunks`() =
+            runTest {
+                // Given
+                val readings = (0 until 5).map { BodyTemperatureWrite(36.5 + it * 0.1, start.plusSeconds(it * 60L)) }
+                val responses =
+                    listOf(
+                        createInsertResponse("a", "b"),
+                        createInsertResponse("c", "d"),
+                        createInsertResponse("e"),
+                    )
+                whenever(healthConnectClient.insertRecords(any()))
+                    .thenReturn(responses[0], responses[1], responses[2])
+
+                // When
+                val result = manager.writeBodyTemperatures(readings, chunkSize = 2)
+
+                // Then
+                verify(healthConnectClient, times(3)).insertRecords(any())
+                assertTrue(result.isSuccess)
+                assertEquals(3, result.chunks.size)
+                assertEquals(listOf("a", "b", "c", "d", "e"), result.insertedIds)
+            }
+
+        @Test
+        @DisplayName("Should report failed chunks and retry only those")
+        fun `should report failed chunks and retry only those`() =
+            runTest {
+                // Given
+                val readings = (0 until 4).map { BodyTemperatureWrite(37.0, start.plusSeconds(it * 60L)) }
+                val firstChunk = createInsertResponse("a", "b")
+                val retriedChunk = createInsertResponse("c", "d")
+                whenever(healthConnectClient.insertRecords(any()))
+                    .thenReturn(firstChunk)
+                    .thenThrow(RuntimeException("Insert failed"))
+                    .thenReturn(retriedChunk)
+
+                // When
+                val firstAttempt = manager.writeBodyTemperatures(readings, chunkSize = 2)
+                val retried = manager.retryFailedWrites(firstAttempt)
+
+                // Then
+                assertFalse(firstAttempt.isSuccess)
+                assertEquals(readings.subList(2, 4), firstAttempt.failedReadings)
+                assertTrue(retried.isSuccess)
+                assertEquals(listOf("a", "b", "c", "d"), retried.insertedIds)
+                verify(healthConnectClient, times(3)).insertRecords(any())
+            }
+    }
+
+    @Nested
+    @DisplayName("Read Cache Tests")
+    inner class ReadCacheTests {
+        private val dayStart = start.plus(3, ChronoUnit.DAYS)
+        private val dayEnd = dayStart.plus(1, ChronoUnit.DAYS)
+
+        @Test
+        @DisplayName("Should serve a repeated read from the cache")
+        fun `should serve a repeated read from the cache`() =
+            runTest {
+                // Given
+                val response = createResponse(listOf(createRecord("1", time = dayStart.plusSeconds(60))), null)
+                whenever(healthConnectClient.readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>()))
+                    .thenReturn(response)
+
+                // When
+                val first = manager.readBodyTemperatures(dayStart, dayEnd).toList()
+                val second = manager.readBodyTemperatures(dayStart.plusSeconds(30), dayEnd).toList()
+
+                // Then
+                assertEquals(first, second)
+                verify(healthConnectClient, times(1)).readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>())
+                assertEquals(1, manager.readCacheStats.hits)
+                assertEquals(1, manager.readCacheStats.misses)
+            }
+
+        @Test
+        @DisplayName("Should only read the windows that are not cached")
+        fun `should only read the windows that are not cached`() =
+            runTest {
+                // Given
+                val emptyResponse = createResponse(emptyList(), null)
+                whenever(healthConnectClient.readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>()))
+                    .thenReturn(emptyResponse)
+                manager.readBodyTemperatures(dayStart, dayEnd).toList()
+
+                // When
+                manager.readBodyTemperatures(dayStart.minus(1, ChronoUnit.DAYS), dayEnd).toList()
+
+                // Then
+                val captor = argumentCaptor<ReadRecordsRequest<BodyTemperatureRecord>>()
+                verify(healthConnectClient, times(2)).readRecords(captor.capture())
+                val missingDay = TimeRangeFilter.between(dayStart.minus(1, ChronoUnit.DAYS), dayStart)
+                assertEquals(missingDay, captor.secondValue.timeRangeFilter)
+            }
+
+        @Test
+        @DisplayName("Should combine cached and read windows newest first")
+        fun `should combine cached and read windows newest first`() =
+            runTest {
+                // Given
+                val cachedDay =
+                    createResponse(
+                        listOf(createRecord("1", time = dayStart), createRecord("2", time = dayStart.plusSeconds(60))),
+                        null,
+                    )
+                val previousDay =
+                    createResponse(
+                        listOf(
+                            createRecord("0b", time = dayStart.minusSeconds(60)),
+                            createRecord("0a", time = dayStart.minusSeconds(120)),
+                        ),
+                        null,
+                    )
+                whenever(healthConnectClient.readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>()))
+                    .thenReturn(cachedDay, previousDay)
+                manager.readBodyTemperatures(dayStart, dayEnd).toList()
+
+                // When
+                val previousDayStart = dayStart.minus(1, ChronoUnit.DAYS)
+                val newestFirst =
+                    manager.readBodyTemperatures(previousDayStart, dayEnd, ascendingOrder = false).toList()
+
+                // Then
+                assertEquals(listOf("2", "1", "0b", "0a"), newestFirst.map { it.recordId })
+                val captor = argumentCaptor<ReadRecordsRequest<BodyTemperatureRecord>>()
+                verify(healthConnectClient, times(2)).readRecords(captor.capture())
+                assertFalse(captor.secondValue.ascendingOrder)
+            }
+
+        @Test
+        @DisplayName("Should read a window again after writing to it")
+        fun `should read a window again after writing to it`() =
+            runTest {
+                // Given
+                val emptyResponse = createResponse(emptyList(), null)
+                val insertResponse = mock<InsertRecordsResponse>()
+                whenever(healthConnectClient.readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>()))
+                    .thenReturn(emptyResponse)
+                whenever(healthConnectClient.insertRecords(any())).thenReturn(insertResponse)
+                manager.readBodyTemperatures(dayStart, dayEnd).toList()
+
+                // When
+                manager.writeBodyTemperature(37.2, dayStart.plusSeconds(600))
+                manager.readBodyTemperatures(dayStart, dayEnd).toList()
+
+                // Then
+                verify(healthConnectClient, times(2)).readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>())
+            }
+
+        @Test
+        @DisplayName("Should drop a deleted record from the cache")
+        fun `should drop a deleted record from the cache`() =
+            runTest {
+                // Given
+                val records =
+                    listOf(createRecord("1", time = dayStart), createRecord("2", time = dayStart.plusSeconds(60)))
+                val response = createResponse(records, null)
+                whenever(healthConnectClient.readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>()))
+                    .thenReturn(response)
+                manager.readBodyTemperatures(dayStart, dayEnd).toList()
+
+                // When
+                manager.deleteBodyTemperature("1")
+                val remaining = manager.readBodyTemperatures(dayStart, dayEnd).toList()
+
+                // Then
+                assertEquals(listOf("2"), remaining.map { it.recordId })
+                verify(healthConnectClient, times(1)).readRecords(any<ReadRecordsRequest<BodyTemperatureRecord>>())
+            }
+    }
+
+    // Helper Methods
+    private fun createRecord(
+        id: String,
+        tempCelsius: Double = 37.0,
+        time: Instant = start.plus(1, ChronoUnit.HOURS),
+    ): BodyTemperatureRecord {
+        return BodyTemperatureRecord(
+            time = time,
+            zoneOffset = ZoneOffset.UTC,
+            temperature = Temperature.celsius(tempCelsius),
+            metadata = Metadata(id = id),
+        )
+    }
+
+    private fun createResponse(
+        records: List<BodyTemperatureRecord>,
+        pageToken: String?,
+    ): ReadRecordsResponse<BodyTemperatureRecord> {
+        val response = mock<ReadRecordsResponse<BodyTemperatureRecord>>()
+        whenever(response.records).thenReturn(records)
+        whenever(response.pageToken).thenReturn(pageToken)
+        return response
+    }
+
+    private fun createInsertResponse(vararg ids: String): InsertRecordsResponse {
+        val response = mock<InsertRecordsResponse>()
+        whenever(response.recordIdsList).thenReturn(ids.toList())
+        return response
+    }
+}
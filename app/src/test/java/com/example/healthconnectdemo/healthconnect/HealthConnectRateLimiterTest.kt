@@ -0,0 +1,147 @@
+package com.example.healthconnectdemo.healthconnect
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.withContext
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+
+@ExperimentalCoroutinesApi
+@DisplayName("HealthConnectRateLimiter Tests")
+class HealthConnectRateLimiterTest {
+    private val budget = RateBudget(capacity = 2, callsPerSecond = 1.0)
+
+    private fun TestScope.createLimiter(maxQuotaRetries: Int = 3) =
+        HealthConnectRateLimiter(
+            foregroundBudget = budget,
+            backgroundBudget = budget,
+            maxQuotaRetries = maxQuotaRetries,
+            nanoTime = { testScheduler.currentTime * 1_000_000 },
+        )
+
+    @Nested
+    @DisplayName("Throttling Tests")
+    inner class ThrottlingTests {
+        @Test
+        @DisplayName("Should queue calls beyond the burst instead of failing them")
+        fun `should queue calls beyond the burst`() =
+            runTest {
+                // Given
+                val limiter = createLimiter()
+
+                // When
+                val results = (1..4).map { index -> async { limiter.run { index } } }.awaitAll()
+
+                // Then
+                assertEquals(listOf(1, 2, 3, 4), results)
+                assertEquals(2000, testScheduler.currentTime)
+                val metrics = limiter.metrics
+                assertEquals(2, metrics.throttledCalls)
+                assertEquals(3000, metrics.totalThrottleMillis)
+                assertEquals(2, metrics.maxQueueDepth)
+                assertEquals(0, metrics.queueDepth)
+            }
+
+        @Test
+        @DisplayName("Should not delay foreground calls behind background ones")
+        fun `should not delay foreground calls behind background ones`() =
+            runTest {
+                // Given
+                val limiter = createLimiter()
+                val background =
+                    (1..4).map {
+                        async { withContext(CallPriority.BACKGROUND) { limiter.run { testScheduler.currentTime } } }
+                    }
+
+                // When
+                val foreground = (1..2).map { async { limiter.run { testScheduler.currentTime } } }
+
+                // Then
+                assertEquals(listOf(0L, 0L), foreground.awaitAll())
+                assertEquals(listOf(0L, 0L, 1000L, 2000L), background.awaitAll())
+            }
+    }
+
+    @Nested
+    @DisplayName("Quota Error Tests")
+    inner class QuotaErrorTests {
+        @Test
+        @DisplayName("Should retry quota errors at a lower rate")
+        fun `should retry quota errors at a lower rate`() =
+            runTest {
+                // Given
+                val limiter = createLimiter()
+                var attempts = 0
+
+                // When
+                val result =
+                    limiter.run {
+                        attempts++
+                        if (attempts < 3) throw IllegalStateException("API call quota exceeded")
+                        "done"
+                    }
+
+                // Then
+                assertEquals("done", result)
+                assertEquals(3, attempts)
+                assertEquals(2, limiter.metrics.quotaErrors)
+                assertTrue(limiter.metrics.foregroundCallsPerSecond < budget.callsPerSecond)
+                assertEquals(budget.callsPerSecond, limiter.metrics.backgroundCallsPerSecond)
+            }
+
+        @Test
+        @DisplayName("Should throw a quota error after the last retry")
+        fun `should throw a quota error after the last retry`() =
+            runTest {
+                // Given
+                val limiter = createLimiter(maxQuotaRetries = 1)
+                var attempts = 0
+
+                // When
+                val error =
+                    runCatching {
+                        limiter.run {
+                            attempts++
+                            throw RuntimeException("Rate limit exceeded")
+                        }
+                    }.exceptionOrNull()
+
+                // Then
+                assertEquals("Rate limit exceeded", error?.message)
+                assertEquals(2, attempts)
+            }
+
+        @Test
+        @DisplayName("Should throw other errors without retrying")
+        fun `should throw other errors without retrying`() =
+            runTest {
+                // Given
+                val limiter = createLimiter()
+                var attempts = 0
+
+                // When
+                val error =
+                    runCatching {
+                        limiter.run {
+                            attempts++
+                            throw SecurityException("Permission denied")
+                        }
+                    }.exceptionOrNull()
+
+                // Then
+                assertTrue(error is SecurityException)
+                assertEquals(1, attempts)
+                assertEquals(0, limiter.metrics.quotaErrors)
+            }
+
+        @Test
+        @DisplayName("Should recognize quota errors in the cause chain")
+        fun `should recognize quota errors in the cause chain`() {
+            assertTrue(HealthConnectRateLimiter.isQuotaError(RuntimeException(Exception("Quota exceeded"))))
+            assertFalse(HealthConnectRateLimiter.isQuotaError(RuntimeException("Remote call failed")))
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.healthconnectdemo.healthconnect
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+
+@ExperimentalCoroutinesApi
+@DisplayName("SingleFlight Tests")
+class SingleFlightTest {
+    private var upstreamStarts = 0
+
+    private fun upstream(range: IntRange): Flow<List<Int>> =
+        flow {
+            upstreamStarts++
+            delay(100)
+            emit(range.filter { it % 2 == 0 })
+            emit(range.filter { it % 2 == 1 })
+        }
+
+    private fun SingleFlight<IntRange, List<Int>>.read(range: IntRange): Flow<List<Int>> =
+        share(
+            key = range,
+            covers = { it.first <= range.first && it.last >= range.last },
+            transform = { _, items -> items.filter { it in range } },
+        ) { upstream(range) }
+
+    @Test
+    @DisplayName("Should share one upstream between identical concurrent reads")
+    fun `should share one upstream between identical concurrent reads`() =
+        runTest {
+            // Given
+            val flight = SingleFlight<IntRange, List<Int>>(backgroundScope)
+
+            // When
+            val first = async { flight.read(0..9).toList() }
+            val second = async { flight.read(0..9).toList() }
+
+            // Then
+            assertEquals(first.await(), second.await())
+            assertEquals(1, upstreamStarts)
+            assertEquals(1, flight.executedCount)
+            assertEquals(1, flight.deduplicatedCount)
+        }
+
+    @Test
+    @DisplayName("Should serve a narrower range from a wider read in flight")
+    fun `should serve a narrower range from a wider read in flight`() =
+        runTest {
+            // Given
+            val flight = SingleFlight<IntRange, List<Int>>(backgroundScope)
+            val wide = async { flight.read(0..9).toList() }
+            runCurrent()
+
+            // When
+            val narrow = async { flight.read(3..5).toList() }
+
+            // Then
+            assertEquals(listOf(listOf(4), listOf(3, 5)), narrow.await())
+            assertEquals(10, wide.await().flatten().size)
+            assertEquals(1, upstreamStarts)
+        }
+
+    @Test
+    @DisplayName("Should start a new upstream once the previous one completed")
+    fun `should start a new upstream once the previous one completed`() =
+        runTest {
+            // Given
+            val flight = SingleFlight<IntRange, List<Int>>(backgroundScope)
+
+            // When
+            flight.read(0..9).toList()
+            flight.read(0..9).toList()
+
+            // Then
+            assertEquals(2, upstreamStarts)
+            assertEquals(0, flight.deduplicatedCount)
+        }
+
+    @Test
+    @DisplayName("Should deliver upstream errors to every collector")
+    fun `should deliver upstream errors to every collector`() =
+        runTest {
+            // Given
+            val flight = SingleFlight<Int, Int>(backgroundScope)
+            val failing = { flow<Int> { delay(10); throw IllegalStateException("Read failed") } }
+
+            // When
+            val first = async { runCatching { flight.share(1, upstream = failing).toList() } }
+            val second = async { runCatching { flight.share(1, upstream = failing).toList() } }
+
+            // Then
+            assertTrue(first.await().exceptionOrNull() is IllegalStateException)
+            assertTrue(second.await().exceptionOrNull() is IllegalStateException)
+            assertEquals(1, flight.executedCount)
+        }
+
+    @Test
+    @DisplayName("Should deliver errors that are not exceptions to every collector")
+    fun `should deliver errors that are not exceptions to every collector`() =
+        runTest {
+            // Given
+            val flight = SingleFlight<Int, Int>(backgroundScope)
+            val failing = { flow<Int> { delay(10); throw AssertionError("Read failed") } }
+
+            // When
+            val first = async { runCatching { flight.share(1, upstream = failing).toList() } }
+            val second = async { runCatching { flight.share(1, upstream = failing).toList() } }
+
+            // Then
+            assertTrue(first.await().exceptionOrNull() is AssertionError)
+            assertTrue(second.await().exceptionOrNull() is AssertionError)
+        }
+
+    @Test
+    @DisplayName("Should not join an upstream that emitted more than it replays")
+    fun `should not join an upstream that emitted more than it replays`() =
+        runTest {
+            // Given
+            val flight = SingleFlight<Int, Int>(backgroundScope)
+            val count = SingleFlight.MAX_REPLAY + 4
+            val upstream = {
+                flow {
+                    upstreamStarts++
+                    repeat(count) { emit(it) }
+                    delay(100)
+                }
+            }
+            val first = async { flight.share(1, upstream = upstream).toList() }
+            runCurrent()
+
+            // When
+            val second = async { flight.share(1, upstream = upstream).toList() }
+
+            // Then
+            assertEquals((0 until count).toList(), first.await())
+            assertEquals((0 until count).toList(), second.await())
+            assertEquals(2, upstreamStarts)
+            assertEquals(0, flight.deduplicatedCount)
+        }
+}
@@ -0,0 +1,252 @@
+package com.example.healthconnectdemo.healthconnect
+
+import androidx.health.connect.client.units.Temperature
+import androidx.paging.PagingConfig
+import androidx.paging.PagingSource
+import androidx.paging.PagingSource.LoadResult
+import androidx.paging.PagingState
+import com.example.healthconnectdemo.healthconnect.HealthConnectManager.Companion.DEFAULT_PAGE_SIZE
+import com.example.healthconnectdemo.healthconnect.TemperatureHistoryPagingSource.PageKey
+import com.example.healthconnectdemo.model.TemperatureReading
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.extension.ExtendWith
+import org.mockito.Mock
+import org.mockito.junit.jupiter.MockitoExtension
+import org.mockito.kotlin.any
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.time.Instant
+import java.time.ZoneOffset
+
+@ExperimentalCoroutinesApi
+@ExtendWith(MockitoExtension::class)
+@DisplayName("TemperatureHistoryPagingSource Tests")
+class TemperatureHistoryPagingSourceTest {
+    @Mock
+    private lateinit var healthConnectManager: HealthConnectManager
+
+    private val end = Instant.parse("2025-03-01T00:00:00Z")
+    private val start = end.minusSeconds(30 * 86_400L)
+
+    private fun TestScope.pagingSource() =
+        TemperatureHistoryPagingSource(healthConnectManager, start, end, StandardTestDispatcher(testScheduler))
+
+    @Test
+    @DisplayName("Should read the newest page first and key the next page by its oldest record")
+    fun `should read the newest page first`() =
+        runTest {
+            // Given
+            givenRecords(createBodyTemperature("b", 2), createBodyTemperature("a", 1), createBodyTemperature("c", 0))
+
+            // When
+            val result = pagingSource().load(PagingSource.LoadParams.Refresh(null, 2, false))
+
+            // Then
+            val page = result as LoadResult.Page
+            assertEquals(listOf("b", "a"), page.data.map { it.recordId })
+            assertNull(page.prevKey)
+            assertEquals(PageKey(hour(1), older = true, setOf("a")), page.nextKey)
+        }
+
+    @Test
+    @DisplayName("Should skip the records already shown at the key's time and end at the oldest record")
+    fun `should skip the records already shown at the key's time`() =
+        runTest {
+            // Given
+            val key = PageKey(hour(1), older = true, setOf("a"))
+            givenRecords(createBodyTemperature("a", 1), createBodyTemperature("a2", 1), createBodyTemperature("c", 0))
+
+            // When
+            val result = pagingSource().load(PagingSource.LoadParams.Append(key, 2, false))
+
+            // Then
+            val page = result as LoadResult.Page
+            assertEquals(listOf("a2", "c"), page.data.map { it.recordId })
+            assertEquals(PageKey(hour(1), older = false, setOf("a2")), page.prevKey)
+            assertNull(page.nextKey)
+        }
+
+    @Test
+    @DisplayName("Should read newer records upwards and show them newest first")
+    fun `should read newer records upwards`() =
+        runTest {
+            // Given
+            val key = PageKey(hour(2), older = false, setOf("b"))
+            givenRecords(
+                createBodyTemperature("b", 2),
+                createBodyTemperature("d", 3),
+                createBodyTemperature("e", 4),
+                createBodyTemperature("f", 5),
+            )
+
+            // When
+            val result = pagingSource().load(PagingSource.LoadParams.Prepend(key, 2, false))
+
+            // Then
+            val page = result as LoadResult.Page
+            assertEquals(listOf("e", "d"), page.data.map { it.recordId })
+            assertEquals(PageKey(hour(4), older = false, setOf("e")), page.prevKey)
+            assertEquals(PageKey(hour(3), older = true, setOf("d")), page.nextKey)
+        }
+
+    @Test
+    @DisplayName("Should end the list at the top when no newer records are left")
+    fun `should end the list at the top when no newer records are left`() =
+        runTest {
+            // Given
+            val key = PageKey(hour(2), older = false, setOf("b"))
+            givenRecords(createBodyTemperature("b", 2))
+
+            // When
+            val result = pagingSource().load(PagingSource.LoadParams.Prepend(key, 2, false))
+
+            // Then
+            val page = result as LoadResult.Page
+            assertTrue(page.data.isEmpty())
+            assertNull(page.prevKey)
+            assertEquals(PageKey(hour(2), older = true), page.nextKey)
+        }
+
+    @Test
+    @DisplayName("Should return an error result when the read fails")
+    fun `should return an error result when the read fails`() =
+        runTest {
+            // Given
+            val failure = SecurityException("Permission denied")
+            whenever(healthConnectManager.readBodyTemperatures(any(), any(), any(), any())).thenThrow(failure)
+
+            // When
+            val result = pagingSource().load(PagingSource.LoadParams.Refresh(null, 2, false))
+
+            // Then
+            assertSame(failure, (result as LoadResult.Error).throwable)
+        }
+
+    @Test
+    @DisplayName("Should convert and format the temperatures of a page")
+    fun `should convert and format the temperatures of a page`() =
+        runTest {
+            // Given
+            givenRecords(createBodyTemperature("a", 1, 37.0), createBodyTemperature("b", 0, 36.789))
+
+            // When
+            val result = pagingSource().load(PagingSource.LoadParams.Refresh(null, 2, false))
+
+            // Then
+            val rows = (result as LoadResult.Page).data
+            assertEquals(37.0, rows[0].temperatureCelsius, 0.1)
+            assertEquals(98.6, rows[0].temperatureFahrenheit, 0.1)
+            assertTrue(rows[1].getFormattedCelsius().matches(Regex("\\d+\\.\\d°C")))
+        }
+
+    @Test
+    @DisplayName("Should read a page through the read cache in whole spans")
+    fun `should read a page through the read cache in whole spans`() =
+        runTest {
+            // Given
+            givenRecords(createBodyTemperature("b", 2), createBodyTemperature("a", 1))
+
+            // When
+            pagingSource().load(PagingSource.LoadParams.Refresh(null, 2, false))
+
+            // Then
+            verify(healthConnectManager)
+                .readBodyTemperatures(end.minus(TemperatureHistoryPagingSource.MIN_SPAN), end, DEFAULT_PAGE_SIZE, false)
+            verify(healthConnectManager, never()).readBodyTemperaturePage(any(), any(), any(), any(), any())
+        }
+
+    @Test
+    @DisplayName("Should start the next page with a span sized by the records found so far")
+    fun `should size the next span by the records found so far`() =
+        runTest {
+            // Given
+            givenRecords(createBodyTemperature("a", 1), createBodyTemperature("b", 0))
+            val source = pagingSource()
+            source.load(PagingSource.LoadParams.Refresh(null, 2, false))
+
+            // When
+            source.load(PagingSource.LoadParams.Append(PageKey(hour(2), older = true), 2, false))
+
+            // Then: 30 days held 2 records, so 3 records take 45 days
+            verify(healthConnectManager).readBodyTemperatures(start, hour(2).plusMillis(1), DEFAULT_PAGE_SIZE, false)
+        }
+
+    @Nested
+    @DisplayName("Refresh Key Tests")
+    inner class RefreshKeyTests {
+        @Test
+        @DisplayName("Should reload from half a page above the anchor")
+        fun `should reload from half a page above the anchor`() =
+            runTest {
+                // Given
+                val state = pagingState(anchorPosition = 5)
+
+                // When
+                val key = pagingSource().getRefreshKey(state)
+
+                // Then
+                assertEquals(PageKey(hour(6), older = true), key)
+            }
+
+        @Test
+        @DisplayName("Should reload from the top near the top of the list")
+        fun `should reload from the top near the top of the list`() =
+            runTest {
+                // Given
+                val state = pagingState(anchorPosition = 1)
+
+                // When
+                val key = pagingSource().getRefreshKey(state)
+
+                // Then
+                assertNull(key)
+            }
+
+        // Two pages of four readings, an hour apart, from hour 9 down to hour 2
+        private fun pagingState(anchorPosition: Int): PagingState<PageKey, TemperatureReading> {
+            val pages =
+                (9 downTo 2L step 4).map { newest ->
+                    val records = (newest downTo newest - 3).map { createBodyTemperature("r$it", it) }
+                    LoadResult.Page(
+                        data = records.map { TemperatureReading.from(it) },
+                        prevKey = if (newest == 9L) null else PageKey(hour(newest), older = false),
+                        nextKey = PageKey(hour(newest - 3), true),
+                    )
+                }
+            return PagingState(pages, anchorPosition, PagingConfig(pageSize = 4), leadingPlaceholderCount = 0)
+        }
+    }
+
+    // Helper Methods
+
+    // Answers range reads from [records], as the read cache would
+    private suspend fun givenRecords(vararg records: BodyTemperature) {
+        whenever(healthConnectManager.readBodyTemperatures(any(), any(), any(), any())).thenAnswer { invocation ->
+            val from = invocation.getArgument<Instant>(0)
+            val to = invocation.getArgument<Instant>(1)
+            val inRange = records.filter { !it.time.isBefore(from) && it.time.isBefore(to) }.sortedBy { it.time }
+            (if (invocation.getArgument<Boolean>(3)) inRange else inRange.asReversed()).asFlow()
+        }
+    }
+
+    private fun hour(hoursAfterStart: Long): Instant = start.plusSeconds(hoursAfterStart * 3600)
+
+    private fun createBodyTemperature(
+        id: String,
+        hoursAfterStart: Long,
+        celsius: Double = 36.6,
+    ): BodyTemperature =
+        BodyTemperature(
+            recordId = id,
+            temperature = Temperature.celsius(celsius),
+            time = hour(hoursAfterStart),
+            zoneOffset = ZoneOffset.UTC,
+        )
+}
@@ -0,0 +1,144 @@
+package com.example.healthconnectdemo.healthconnect
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.flow.emptyFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.extension.ExtendWith
+import org.mockito.Mock
+import org.mockito.junit.jupiter.MockitoExtension
+import org.mockito.kotlin.any
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.time.Duration
+import java.time.Instant
+
+@ExperimentalCoroutinesApi
+@ExtendWith(MockitoExtension::class)
+@DisplayName("TemperaturePrefetcher Tests")
+class TemperaturePrefetcherTest {
+    @Mock
+    private lateinit var healthConnectManager: HealthConnectManager
+
+    private val end = Instant.parse("2025-03-01T00:00:00Z")
+    private val week = Duration.ofDays(7)
+    private val start = end.minus(week)
+
+    @Test
+    @DisplayName("Should read the previous window in the background after a load")
+    fun `should read the previous window in the background after a load`() =
+        runTest {
+            // Given
+            var priority: CallPriority? = null
+            whenever(healthConnectManager.readBodyTemperatures(any(), any(), any(), any())).thenReturn(
+                flow { priority = currentCoroutineContext()[CallPriority] },
+            )
+            val prefetcher = TemperaturePrefetcher(healthConnectManager, backgroundScope)
+
+            // When
+            prefetcher.onRangeLoaded(start, end)
+            runCurrent()
+
+            // Then
+            verify(healthConnectManager).readBodyTemperatures(
+                start.minus(week),
+                start,
+                HealthConnectManager.DEFAULT_PAGE_SIZE,
+                false,
+            )
+            assertEquals(CallPriority.BACKGROUND, priority)
+        }
+
+    @Test
+    @DisplayName("Should read further ahead while the user keeps paging back")
+    fun `should read further ahead while the user keeps paging back`() =
+        runTest {
+            // Given
+            whenever(healthConnectManager.readBodyTemperatures(any(), any(), any(), any())).thenReturn(emptyFlow())
+            val prefetcher = TemperaturePrefetcher(healthConnectManager, backgroundScope, maxDepth = 2)
+
+            // When
+            prefetcher.onRangeLoaded(start, end)
+            runCurrent()
+            prefetcher.onRangeLoaded(start.minus(week), end, week)
+            runCurrent()
+            prefetcher.onRangeLoaded(start.minus(week.multipliedBy(2)), end, week)
+            runCurrent()
+            val depthWhilePaging = prefetcher.currentDepth
+            prefetcher.onRangeLoaded(start, end)
+
+            // Then
+            assertEquals(2, depthWhilePaging)
+            assertEquals(1, prefetcher.currentDepth)
+            verify(healthConnectManager).readBodyTemperatures(
+                start.minus(week.multipliedBy(4)),
+                start.minus(week.multipliedBy(3)),
+                HealthConnectManager.DEFAULT_PAGE_SIZE,
+                false,
+            )
+        }
+
+    @Test
+    @DisplayName("Should not read before the floor")
+    fun `should not read before the floor`() =
+        runTest {
+            // Given
+            whenever(healthConnectManager.readBodyTemperatures(any(), any(), any(), any())).thenReturn(emptyFlow())
+            val prefetcher = TemperaturePrefetcher(healthConnectManager, backgroundScope, maxDepth = 2)
+            val floor = start.minus(Duration.ofDays(3))
+            prefetcher.onRangeLoaded(start, end, week, floor)
+            runCurrent()
+
+            // When
+            prefetcher.onRangeLoaded(start.minus(Duration.ofDays(1)), end, week, floor)
+            runCurrent()
+
+            // Then
+            verify(healthConnectManager).readBodyTemperatures(
+                floor,
+                start,
+                HealthConnectManager.DEFAULT_PAGE_SIZE,
+                false,
+            )
+            verify(healthConnectManager).readBodyTemperatures(
+                floor,
+                start.minus(Duration.ofDays(1)),
+                HealthConnectManager.DEFAULT_PAGE_SIZE,
+                false,
+            )
+            verify(healthConnectManager, never()).readBodyTemperatures(any(), eq(floor), any(), any())
+        }
+
+    @Test
+    @DisplayName("Should stop prefetching when cancelled")
+    fun `should stop prefetching when cancelled`() =
+        runTest {
+            // Given
+            whenever(healthConnectManager.readBodyTemperatures(any(), any(), any(), any())).thenReturn(
+                flow { awaitCancellation() },
+            )
+            val prefetcher = TemperaturePrefetcher(healthConnectManager, backgroundScope, maxDepth = 2)
+            prefetcher.onRangeLoaded(start, end)
+            prefetcher.onRangeLoaded(start.minus(week), end, week)
+            runCurrent()
+
+            // When
+            prefetcher.cancel()
+            runCurrent()
+
+            // Then
+            verify(healthConnectManager, never()).readBodyTemperatures(
+                start.minus(week.multipliedBy(3)),
+                start.minus(week.multipliedBy(2)),
+                HealthConnectManager.DEFAULT_PAGE_SIZE,
+                false,
+            )
+        }
+}
@@ -0,0 +1,223 @@
+package com.example.healthconnectdemo.healthconnect
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.extension.ExtendWith
+import org.mockito.Mock
+import org.mockito.junit.jupiter.MockitoExtension
+import org.mockito.kotlin.any
+import org.mockito.kotlin.argThat
+import org.mockito.kotlin.doSuspendableAnswer
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.time.Instant
+
+@ExperimentalCoroutinesApi
+@ExtendWith(MockitoExtension::class)
+@DisplayName("TemperatureWriteBuffer Tests")
+class TemperatureWriteBufferTest {
+    @Mock
+    private lateinit var healthConnectManager: HealthConnectManager
+
+    private val now = Instant.parse("2025-03-01T00:00:00Z")
+
+    private fun TestScope.buffer(maxBatchSize: Int = 3) =
+        TemperatureWriteBuffer(healthConnectManager, backgroundScope, maxBatchSize, maxDelayMillis = 1000L)
+
+    private fun reading(index: Int) = BodyTemperatureWrite(36.0 + index / 10.0, now.plusSeconds(index.toLong()))
+
+    // Inserts return only once this completes, so the first insert stays in flight
+    private val insertsReleased = CompletableDeferred<Unit>()
+
+    private suspend fun insertSucceeds() {
+        whenever(healthConnectManager.writeBodyTemperatures(any(), any())).doSuspendableAnswer { invocation ->
+            insertsReleased.await()
+            val readings = invocation.getArgument<List<BodyTemperatureWrite>>(0)
+            BulkWriteResult(listOf(ChunkWriteResult(0, readings, readings.indices.map { "id-$it" })))
+        }
+    }
+
+    // Puts one insert in flight, so the next readings are batched
+    private fun TestScope.startInsert(buffer: TemperatureWriteBuffer) {
+        buffer.submit(reading(9))
+        runCurrent()
+    }
+
+    @Nested
+    @DisplayName("Flush Trigger Tests")
+    inner class FlushTriggerTests {
+        @Test
+        @DisplayName("Should write a lone reading at once")
+        fun `should write a lone reading at once`() =
+            runTest {
+                // Given
+                insertSucceeds()
+                insertsReleased.complete(Unit)
+                val buffer = buffer()
+
+                // When
+                val deferred = buffer.submit(reading(0))
+                runCurrent()
+
+                // Then
+                verify(healthConnectManager).writeBodyTemperatures(argThat { size == 1 }, any())
+                assertEquals("id-0", deferred.await())
+            }
+
+        @Test
+        @DisplayName("Should batch readings submitted during an insert and write them when it ends")
+        fun `should batch readings submitted during an insert`() =
+            runTest {
+                // Given
+                insertSucceeds()
+                val buffer = buffer()
+                startInsert(buffer)
+                val first = buffer.submit(reading(0))
+                val second = buffer.submit(reading(1))
+                runCurrent()
+                verify(healthConnectManager, times(1)).writeBodyTemperatures(any(), any())
+
+                // When
+                insertsReleased.complete(Unit)
+                runCurrent()
+
+                // Then
+                verify(healthConnectManager).writeBodyTemperatures(argThat { size == 2 }, any())
+                assertEquals("id-0", first.await())
+                assertEquals("id-1", second.await())
+                assertEquals(0, buffer.pendingCount)
+            }
+
+        @Test
+        @DisplayName("Should write at once when the batch is full")
+        fun `should write at once when the batch is full`() =
+            runTest {
+                // Given
+                insertSucceeds()
+                val buffer = buffer(maxBatchSize = 2)
+                startInsert(buffer)
+
+                // When
+                val first = buffer.submit(reading(0))
+                val second = buffer.submit(reading(1))
+                runCurrent()
+
+                // Then
+                verify(healthConnectManager).writeBodyTemperatures(argThat { size == 2 }, any())
+                insertsReleased.complete(Unit)
+                assertEquals("id-0", first.await())
+                assertEquals("id-1", second.await())
+                assertEquals(0, buffer.pendingCount)
+            }
+
+        @Test
+        @DisplayName("Should write a partial batch once the delay has passed")
+        fun `should write a partial batch once the delay has passed`() =
+            runTest {
+                // Given
+                insertSucceeds()
+                val buffer = buffer()
+                startInsert(buffer)
+                buffer.submit(reading(0))
+                runCurrent()
+                verify(healthConnectManager, times(1)).writeBodyTemperatures(any(), any())
+
+                // When
+                advanceTimeBy(1000L)
+                runCurrent()
+
+                // Then
+                verify(healthConnectManager, times(2)).writeBodyTemperatures(any(), any())
+                assertEquals(0, buffer.pendingCount)
+            }
+
+        @Test
+        @DisplayName("Should write pending readings on flush without waiting")
+        fun `should write pending readings on flush without waiting`() =
+            runTest {
+                // Given
+                insertSucceeds()
+                val buffer = buffer()
+                startInsert(buffer)
+                val deferred = buffer.submit(reading(0))
+
+                // When
+                buffer.flush()
+                runCurrent()
+                insertsReleased.complete(Unit)
+                advanceTimeBy(2000L)
+                runCurrent()
+
+                // Then
+                verify(healthConnectManager, times(2)).writeBodyTemperatures(any(), any())
+                assertEquals("id-0", deferred.await())
+                assertEquals(0, buffer.pendingCount)
+            }
+    }
+
+    @Nested
+    @DisplayName("Failure Tests")
+    inner class FailureTests {
+        @Test
+        @DisplayName("Should fail only the readings of the failed chunk")
+        fun `should fail only the readings of the failed chunk`() =
+            runTest {
+                // Given
+                val failure = RuntimeException("Quota exceeded")
+                whenever(healthConnectManager.writeBodyTemperatures(any(), any())).doSuspendableAnswer { invocation ->
+                    insertsReleased.await()
+                    val readings = invocation.getArgument<List<BodyTemperatureWrite>>(0)
+                    BulkWriteResult(
+                        listOf(
+                            ChunkWriteResult(0, readings.take(2), listOf("id-0", "id-1")),
+                            ChunkWriteResult(1, readings.drop(2), emptyList(), failure),
+                        ),
+                    )
+                }
+                val buffer = buffer()
+                startInsert(buffer)
+
+                // When
+                val deferred = (0 until 3).map { buffer.submit(reading(it)) }
+                insertsReleased.complete(Unit)
+                runCurrent()
+
+                // Then
+                assertEquals("id-0", deferred[0].await())
+                assertEquals("id-1", deferred[1].await())
+                val error = assertThrows(RuntimeException::class.java) { deferred[2].getCompleted() }
+                assertSame(failure, error)
+            }
+
+        @Test
+        @DisplayName("Should fail every reading when the insert throws")
+        fun `should fail every reading when the insert throws`() =
+            runTest {
+                // Given
+                val failure = RuntimeException("Health Connect unavailable")
+                whenever(healthConnectManager.writeBodyTemperatures(any(), any())).doSuspendableAnswer {
+                    insertsReleased.await()
+                    throw failure
+                }
+                val buffer = buffer()
+                startInsert(buffer)
+
+                // When
+                val deferred = (0 until 3).map { buffer.submit(reading(it)) }
+                insertsReleased.complete(Unit)
+                runCurrent()
+
+                // Then
+                deferred.forEach { completion ->
+                    assertSame(failure, assertThrows(RuntimeException::class.java) { completion.getCompleted() })
+                }
+            }
+    }
+}
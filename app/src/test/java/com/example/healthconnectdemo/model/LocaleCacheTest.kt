@@ -0,0 +1,36 @@
+package com.example.healthconnectdemo.model
+
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import java.util.Locale
+
+@DisplayName("LocaleCache Tests")
+class LocaleCacheTest {
+    private val defaultLocale = Locale.getDefault(Locale.Category.FORMAT)
+
+    @AfterEach
+    fun tearDown() {
+        Locale.setDefault(Locale.Category.FORMAT, defaultLocale)
+    }
+
+    @Test
+    @DisplayName("Should build once per locale and rebuild when it changes")
+    fun `should build once per locale and rebuild when it changes`() {
+        // Given
+        Locale.setDefault(Locale.Category.FORMAT, Locale.US)
+        val built = mutableListOf<Locale>()
+        val cache = LocaleCache { locale -> built.add(locale); locale.toLanguageTag() }
+
+        // When
+        val first = cache.get()
+        val second = cache.get()
+        Locale.setDefault(Locale.Category.FORMAT, Locale.GERMANY)
+        val third = cache.get()
+
+        // Then
+        assertEquals("en-US", first)
+        assertSame(first, second)
+        assertEquals("de-DE", third)
+        assertEquals(listOf(Locale.US, Locale.GERMANY), built)
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.healthconnectdemo.model
+
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import java.time.Instant
+import java.time.ZoneOffset
+import java.util.UUID
+
+@DisplayName("TemperatureSeries Tests")
+class TemperatureSeriesTest {
+    private val baseTime = Instant.parse("2025-01-01T00:00:00Z").toEpochMilli()
+    private val ist = ZoneOffset.ofHoursMinutes(5, 30)
+
+    @Nested
+    @DisplayName("Storage Tests")
+    inner class StorageTests {
+        @Test
+        @DisplayName("Should return every stored column")
+        fun `should return every stored column`() {
+            // Given
+            val uuid = UUID.randomUUID().toString()
+            val user = UserInfo("Jane", UserType.PATIENT, "p-1")
+
+            // When
+            val series =
+                TemperatureSeries.Builder(1)
+                    .add(uuid, baseTime, 36.66, ist, user)
+                    .add("not-a-uuid", baseTime - 1000, 38.2, ZoneOffset.UTC)
+                    .add(uuid.uppercase(), baseTime - 2000, 37.0, ist, user)
+                    .build()
+
+            // Then
+            assertEquals(3, series.size)
+            assertEquals(listOf(uuid, "not-a-uuid", uuid.uppercase()), (0 until 3).map { series.recordId(it) })
+            assertEquals(36.66, series.celsius(0))
+            assertEquals(Instant.ofEpochMilli(baseTime - 1000), series.timestamp(1))
+            assertEquals(listOf(ist, ZoneOffset.UTC, ist), (0 until 3).map { series.zoneOffset(it) })
+            assertSame(series.userInfo(0), series.userInfo(2))
+            assertNull(series.userInfo(1))
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.healthconnectdemo.model
+
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+
+@DisplayName("TemperatureText Tests")
+class TemperatureTextTest {
+    @Test
+    @DisplayName("Should match formatted texts across the whole valid range")
+    fun `should match formatted texts across the whole valid range`() {
+        for (tenths in 200..450) {
+            // Given
+            val celsius = tenths / 10.0
+            val fahrenheit = TemperatureReading.celsiusToFahrenheit(celsius)
+
+            // When / Then
+            assertEquals(String.format("%.1f°C", celsius), TemperatureText.celsius(celsius))
+            assertEquals(String.format("%.1f°F", fahrenheit), TemperatureText.fahrenheit(celsius, fahrenheit))
+        }
+    }
+
+    @Test
+    @DisplayName("Should reuse the table texts for values on the grid")
+    fun `should reuse the table texts for values on the grid`() {
+        // When
+        val first = TemperatureText.celsius(36.6)
+        val second = TemperatureText.celsius(3660 / 100.0)
+
+        // Then
+        assertSame(first, second)
+    }
+
+    @Test
+    @DisplayName("Should format values off the grid or out of range")
+    fun `should format values off the grid or out of range`() {
+        assertEquals(String.format("%.1f°C", 36.65), TemperatureText.celsius(36.65))
+        assertEquals(String.format("%.1f°C", 50.0), TemperatureText.celsius(50.0))
+        assertEquals(String.format("%.1f°F", 100.0), TemperatureText.fahrenheit(36.6, 100.0))
+    }
+
+    @Test
+    @DisplayName("Should classify the status at the range boundaries")
+    fun `should classify the status at the range boundaries`() {
+        assertEquals(TemperatureText.STATUS_LOW, TemperatureText.status(36.0))
+        assertEquals(TemperatureText.STATUS_NORMAL, TemperatureText.status(36.1))
+        assertEquals(TemperatureText.STATUS_NORMAL, TemperatureText.status(37.2))
+        assertEquals(TemperatureText.STATUS_HIGH, TemperatureText.status(37.3))
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.healthconnectdemo.repository
+
+import com.example.healthconnectdemo.healthconnect.HealthConnectManager
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.extension.ExtendWith
+import org.mockito.Mock
+import org.mockito.junit.jupiter.MockitoExtension
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+@ExperimentalCoroutinesApi
+@ExtendWith(MockitoExtension::class)
+@DisplayName("TemperatureRepository Tests")
+class TemperatureRepositoryTest {
+    @Mock
+    private lateinit var healthConnectManager: HealthConnectManager
+
+    @Test
+    @DisplayName("Should move the revision on deletes and recorded readings")
+    fun `should move the revision on deletes and recorded readings`() =
+        runTest {
+            // Given
+            val repository = TemperatureRepository(healthConnectManager)
+
+            // When
+            repository.delete("a")
+            repository.onRecorded()
+
+            // Then
+            assertEquals(2L, repository.revision.value)
+            verify(healthConnectManager).deleteBodyTemperature("a")
+        }
+
+    @Test
+    @DisplayName("Should keep the revision when the delete fails")
+    fun `should keep the revision when the delete fails`() =
+        runTest {
+            // Given
+            val repository = TemperatureRepository(healthConnectManager)
+            whenever(healthConnectManager.deleteBodyTemperature("a")).thenThrow(RuntimeException("Failed to delete"))
+
+            // When
+            val result = runCatching { repository.delete("a") }
+
+            // Then
+            assertTrue(result.isFailure)
+            assertEquals(0L, repository.revision.value)
+        }
+}
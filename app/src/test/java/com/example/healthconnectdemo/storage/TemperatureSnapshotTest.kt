@@ -0,0 +1,96 @@
+package com.example.healthconnectdemo.storage
+
+import org.junit.jupiter.api.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.util.UUID
+
+@DisplayName("TemperatureSnapshot Tests")
+class TemperatureSnapshotTest {
+    @TempDir
+    lateinit var directory: File
+
+    private val baseTime = 1_740_787_200_000L
+
+    @Test
+    @DisplayName("Should read back the written points in order")
+    fun `should read back the written points in order`() {
+        // Given
+        val snapshot = TemperatureSnapshot(File(directory, "snapshot"))
+        val points =
+            (0 until 200).map { index ->
+                StoredTemperature(
+                    recordId = if (index % 2 == 0) UUID.randomUUID().toString() else "record-$index",
+                    epochMillis = baseTime - index * 3_600_000L,
+                    celsius = 36.0 + (index % 20) / 10.0,
+                    offsetSeconds = if (index < 100) 3600 else 7200,
+                )
+            }
+
+        // When
+        snapshot.write(points)
+
+        // Then
+        assertEquals(points, TemperatureSnapshot(File(directory, "snapshot")).read())
+    }
+
+    @Test
+    @DisplayName("Should read back millisecond timestamps from every delta bucket")
+    fun `should read back millisecond timestamps from every delta bucket`() {
+        // Given
+        val snapshot = TemperatureSnapshot(File(directory, "snapshot"))
+        val gaps = listOf(60_000L, 60_000L, 61_234L, 3_600_000L, 900_000L, 864_000_000L, 1_000L, 9_000_000_000L)
+        val times = gaps.runningFold(baseTime) { time, gap -> time - gap }
+        val points = times.map { StoredTemperature("a", it, 36.6, 0) }
+
+        // When
+        snapshot.write(points)
+
+        // Then
+        assertEquals(points, snapshot.read())
+    }
+
+    @Test
+    @DisplayName("Should not spend 64 bits on readings hours apart")
+    fun `should not spend 64 bits on readings hours apart`() {
+        // Given
+        val points =
+            (0 until 100).map { index ->
+                // Hourly readings, each taken a few seconds early or late
+                StoredTemperature("a", baseTime - index * 3_600_000L + (index * 7_919L) % 20_000L, 36.6, 0)
+            }
+
+        // When
+        val encoded = GorillaBlockCodec.encode(points)
+
+        // Then
+        // Timestamp, unchanged temperature, unchanged offset and a one-byte ID take under 7 bytes
+        assertTrue(encoded.size < points.size * 7, "Encoded ${encoded.size} bytes")
+    }
+
+    @Test
+    @DisplayName("Should read a missing snapshot as empty")
+    fun `should read a missing snapshot as empty`() {
+        // When
+        val result = TemperatureSnapshot(File(directory, "missing")).read()
+
+        // Then
+        assertTrue(result.isEmpty())
+    }
+
+    @Test
+    @DisplayName("Should read a damaged snapshot as empty")
+    fun `should read a damaged snapshot as empty`() {
+        // Given
+        val file = File(directory, "snapshot")
+        TemperatureSnapshot(file).write(listOf(StoredTemperature("a", baseTime, 36.6, 0)))
+        file.writeBytes(file.readBytes().copyOf(20))
+
+        // When
+        val result = TemperatureSnapshot(file).read()
+
+        // Then
+        assertTrue(result.isEmpty())
+    }
+}
@@ -1,27 +1,40 @@
 package com.example.healthconnectdemo.viewmodel
 
 import androidx.arch.core.executor.testing.InstantTaskExecutorRule
+import androidx.paging.PagingData
 import com.example.healthconnectdemo.healthconnect.BodyTemperature
+import com.example.healthconnectdemo.healthconnect.BodyTemperatureChanges
 import com.example.healthconnectdemo.healthconnect.HealthConnectManager
+import com.example.healthconnectdemo.model.TemperatureReading
+import com.example.healthconnectdemo.repository.TemperatureRepository
+import com.example.healthconnectdemo.storage.TemperatureSnapshot
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
-import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.UnconfinedTestDispatcher
 import kotlinx.coroutines.test.advanceUntilIdle
 import kotlinx.coroutines.test.resetMain
+import kotlinx.coroutines.test.runCurrent
 import kotlinx.coroutines.test.runTest
 import kotlinx.coroutines.test.setMain
 import org.junit.Rule
 import org.junit.jupiter.api.*
 import org.junit.jupiter.api.Assertions.*
 import org.junit.jupiter.api.extension.ExtendWith
+import org.junit.jupiter.api.io.TempDir
 import org.mockito.Mock
 import org.mockito.junit.jupiter.MockitoExtension
 import org.mockito.kotlin.any
+import org.mockito.kotlin.never
+import org.mockito.kotlin.times
 import org.mockito.kotlin.verify
 import org.mockito.kotlin.whenever
+import java.io.File
+import java.time.Duration
 import java.time.Instant
-import java.time.temporal.ChronoUnit
 
 @ExperimentalCoroutinesApi
 @ExtendWith(MockitoExtension::class)
@@ -35,12 +48,18 @@ class HistoryViewModelTest {
     @Mock
     private lateinit var healthConnectManager: HealthConnectManager
 
+    @TempDir
+    lateinit var directory: File
+
+    private lateinit var repository: TemperatureRepository
     private lateinit var viewModel: HistoryViewModel
 
     @BeforeEach
     fun setup() {
         Dispatchers.setMain(testDispatcher)
-        viewModel = HistoryViewModel(healthConnectManager)
+        repository = TemperatureRepository(healthConnectManager)
+        val snapshot = TemperatureSnapshot(File(directory, "snapshot"))
+        viewModel = HistoryViewModel(healthConnectManager, repository, snapshot, testDispatcher)
     }
 
     @AfterEach
@@ -49,111 +68,89 @@ class HistoryViewModelTest {
     }
 
     @Nested
-    @DisplayName("Load Temperature History Tests")
-    inner class LoadHistoryTests {
+    @DisplayName("Changes Refresh Tests")
+    inner class ChangesRefreshTests {
         @Test
-        @DisplayName("Should load temperature history successfully")
-        fun `should load temperature history successfully`() =
+        @DisplayName("Should not ask for changes before the list is shown")
+        fun `should not ask for changes before the list is shown`() =
             runTest {
-                // Given
-                val start = Instant.now().minus(30, ChronoUnit.DAYS)
-                val end = Instant.now()
-                val mockTemperatures =
-                    listOf(
-                        createMockBodyTemperature("1", 36.5),
-                        createMockBodyTemperature("2", 37.0),
-                        createMockBodyTemperature("3", 37.5),
-                    )
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf(*mockTemperatures.toTypedArray()))
-
                 // When
-                viewModel.loadTemperatureHistory(start, end)
+                viewModel.refreshIfChanged()
                 advanceUntilIdle()
 
                 // Then
-                val history = viewModel.temperatureHistory.value
-                assertNotNull(history)
-                assertEquals(3, history!!.size)
-                assertFalse(viewModel.isLoading.value!!)
+                verify(healthConnectManager, never()).getBodyTemperatureChanges(any())
             }
 
         @Test
-        @DisplayName("Should handle empty temperature history")
-        fun `should handle empty temperature history`() =
+        @DisplayName("Should reload the list when records changed")
+        fun `should reload the list when records changed`() =
             runTest {
                 // Given
-                val start = Instant.now().minus(30, ChronoUnit.DAYS)
-                val end = Instant.now()
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf())
+                whenever(healthConnectManager.getBodyTemperatureChangesToken()).thenReturn("token-1")
+                whenever(healthConnectManager.getBodyTemperatureChanges("token-1"))
+                    .thenReturn(
+                        BodyTemperatureChanges(
+                            upserts = listOf(createMockBodyTemperature("1", 38.0)),
+                            nextChangesToken = "token-2",
+                        ),
+                    )
+                val generations = showHistory()
 
                 // When
-                viewModel.loadTemperatureHistory(start, end)
+                viewModel.refreshIfChanged()
                 advanceUntilIdle()
 
                 // Then
-                val history = viewModel.temperatureHistory.value
-                assertNotNull(history)
-                assertTrue(history!!.isEmpty())
+                assertEquals(2, generations.size)
             }
 
         @Test
-        @DisplayName("Should handle exception when loading history")
-        fun `should handle exception when loading history`() =
+        @DisplayName("Should keep the list and continue from the next token when nothing changed")
+        fun `should keep the list when nothing changed`() =
             runTest {
                 // Given
-                val start = Instant.now().minus(30, ChronoUnit.DAYS)
-                val end = Instant.now()
-                val errorMessage = "Failed to load history"
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenThrow(RuntimeException(errorMessage))
+                whenever(healthConnectManager.getBodyTemperatureChangesToken()).thenReturn("token-1")
+                whenever(healthConnectManager.getBodyTemperatureChanges("token-1"))
+                    .thenReturn(BodyTemperatureChanges(nextChangesToken = "token-2"))
+                whenever(healthConnectManager.getBodyTemperatureChanges("token-2"))
+                    .thenReturn(BodyTemperatureChanges(nextChangesToken = "token-3"))
+                val generations = showHistory()
 
                 // When
-                viewModel.loadTemperatureHistory(start, end)
+                viewModel.refreshIfChanged()
+                advanceUntilIdle()
+                viewModel.refreshIfChanged()
                 advanceUntilIdle()
 
                 // Then
-                val error = viewModel.errorMessage.value
-                assertNotNull(error)
-                assertTrue(error!!.contains("Error loading temperature history"))
+                assertEquals(1, generations.size)
+                verify(healthConnectManager).getBodyTemperatureChanges("token-2")
+                verify(healthConnectManager, times(1)).getBodyTemperatureChangesToken()
             }
 
         @Test
-        @DisplayName("Should sort temperature history by newest first")
-        fun `should sort temperature history by newest first`() =
+        @DisplayName("Should reload the list and take a new token when the changes token expired")
+        fun `should reload the list when the changes token expired`() =
             runTest {
                 // Given
-                val start = Instant.now().minus(30, ChronoUnit.DAYS)
-                val end = Instant.now()
-                val oldTime = Instant.now().minus(2, ChronoUnit.DAYS)
-                val recentTime = Instant.now().minus(1, ChronoUnit.DAYS)
-                val newestTime = Instant.now()
-
-                val mockTemperatures =
-                    listOf(
-                        createMockBodyTemperatureWithTime("1", 36.5, oldTime),
-                        createMockBodyTemperatureWithTime("2", 37.0, newestTime),
-                        createMockBodyTemperatureWithTime("3", 37.5, recentTime),
-                    )
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf(*mockTemperatures.toTypedArray()))
+                whenever(healthConnectManager.getBodyTemperatureChangesToken()).thenReturn("token-1", "token-2")
+                whenever(healthConnectManager.getBodyTemperatureChanges("token-1"))
+                    .thenReturn(BodyTemperatureChanges(tokenExpired = true))
+                whenever(healthConnectManager.getBodyTemperatureChanges("token-2"))
+                    .thenReturn(BodyTemperatureChanges(nextChangesToken = "token-3"))
+                val generations = showHistory()
 
                 // When
-                viewModel.loadTemperatureHistory(start, end)
+                viewModel.refreshIfChanged()
+                advanceUntilIdle()
+                viewModel.refreshIfChanged()
                 advanceUntilIdle()
 
                 // Then
-                val history = viewModel.temperatureHistory.value
-                assertNotNull(history)
-                assertEquals(3, history!!.size)
-                // Verify newest first
-                assertTrue(history[0].timestamp.isAfter(history[1].timestamp))
-                assertTrue(history[1].timestamp.isAfter(history[2].timestamp))
+                assertEquals(2, generations.size)
+                verify(healthConnectManager, times(2)).getBodyTemperatureChangesToken()
+                verify(healthConnectManager).getBodyTemperatureChanges("token-2")
             }
     }
 
@@ -166,20 +163,6 @@ class HistoryViewModelTest {
             runTest {
                 // Given
                 val recordId = "test-record-id"
-                val start = Instant.now().minus(30, ChronoUnit.DAYS)
-                val end = Instant.now()
-                val mockTemperatures =
-                    listOf(
-                        createMockBodyTemperature(recordId, 36.5),
-                        createMockBodyTemperature("2", 37.0),
-                    )
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf(*mockTemperatures.toTypedArray()))
-
-                // Load initial data
-                viewModel.loadTemperatureHistory(start, end)
-                advanceUntilIdle()
 
                 // When
                 viewModel.deleteTemperatureReading(recordId)
@@ -187,10 +170,7 @@ class HistoryViewModelTest {
 
                 // Then
                 verify(healthConnectManager).deleteBodyTemperature(recordId)
-                val history = viewModel.temperatureHistory.value
-                assertNotNull(history)
-                assertEquals(1, history!!.size)
-                assertFalse(history.any { it.recordId == recordId })
+                assertNull(viewModel.uiState.value.errorMessage)
             }
 
         @Test
@@ -209,172 +189,143 @@ class HistoryViewModelTest {
                 advanceUntilIdle()
 
                 // Then
-                val error = viewModel.errorMessage.value
+                val error = viewModel.uiState.value.errorMessage
                 assertNotNull(error)
                 assertTrue(error!!.contains("Error deleting temperature"))
             }
 
         @Test
-        @DisplayName("Should remove deleted item from list")
-        fun `should remove deleted item from list`() =
+        @DisplayName("Should reload the paged list after a delete")
+        fun `should reload the paged list after a delete`() =
             runTest {
                 // Given
-                val recordId = "delete-me"
-                val start = Instant.now().minus(30, ChronoUnit.DAYS)
-                val end = Instant.now()
-                val mockTemperatures =
-                    listOf(
-                        createMockBodyTemperature("1", 36.5),
-                        createMockBodyTemperature(recordId, 37.0),
-                        createMockBodyTemperature("3", 37.5),
-                    )
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf(*mockTemperatures.toTypedArray()))
+                whenever(healthConnectManager.getBodyTemperatureChangesToken()).thenReturn("token-1")
+                val generations = showHistory()
 
-                viewModel.loadTemperatureHistory(start, end)
+                // When
+                viewModel.deleteTemperatureReading("delete-me")
                 advanceUntilIdle()
 
-                val initialSize = viewModel.temperatureHistory.value!!.size
-                assertEquals(3, initialSize)
+                // Then
+                assertEquals(2, generations.size)
+            }
+
+        @Test
+        @DisplayName("Should keep the paged list when the delete fails")
+        fun `should keep the paged list when the delete fails`() =
+            runTest {
+                // Given
+                whenever(healthConnectManager.getBodyTemperatureChangesToken()).thenReturn("token-1")
+                whenever(healthConnectManager.deleteBodyTemperature("delete-me")).thenThrow(RuntimeException("Failed"))
+                val generations = showHistory()
 
                 // When
-                viewModel.deleteTemperatureReading(recordId)
+                viewModel.deleteTemperatureReading("delete-me")
                 advanceUntilIdle()
 
                 // Then
-                val history = viewModel.temperatureHistory.value
-                assertEquals(2, history!!.size)
-                assertFalse(history.any { it.recordId == recordId })
+                assertEquals(1, generations.size)
             }
     }
 
     @Nested
-    @DisplayName("Temperature Conversion Tests")
-    inner class ConversionTests {
+    @DisplayName("Loading State Tests")
+    inner class LoadingStateTests {
         @Test
-        @DisplayName("Should convert Celsius to Fahrenheit correctly")
-        fun `should convert Celsius to Fahrenheit correctly`() =
+        @DisplayName("Should clear loading state after delete")
+        fun `should clear loading state after delete`() =
             runTest {
-                // Given
-                val start = Instant.now().minus(1, ChronoUnit.DAYS)
-                val end = Instant.now()
-                val celsiusTemp = 37.0
-                val expectedFahrenheit = 98.6
-
-                val mockTemperatures =
-                    listOf(
-                        createMockBodyTemperature("1", celsiusTemp),
-                    )
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf(*mockTemperatures.toTypedArray()))
-
                 // When
-                viewModel.loadTemperatureHistory(start, end)
-                advanceUntilIdle()
+                viewModel.deleteTemperatureReading("1")
+                runCurrent()
 
                 // Then
-                val history = viewModel.temperatureHistory.value
-                assertNotNull(history)
-                assertEquals(1, history!!.size)
-                assertEquals(celsiusTemp, history[0].temperatureCelsius, 0.1)
-                assertEquals(expectedFahrenheit, history[0].temperatureFahrenheit, 0.1)
+                advanceUntilIdle()
+                assertFalse(viewModel.uiState.value.isLoading)
             }
 
         @Test
-        @DisplayName("Should format temperature values correctly")
-        fun `should format temperature values correctly`() =
+        @DisplayName("Should clear loading state after error")
+        fun `should clear loading state after error`() =
             runTest {
                 // Given
-                val start = Instant.now().minus(1, ChronoUnit.DAYS)
-                val end = Instant.now()
-                val mockTemperatures =
-                    listOf(
-                        createMockBodyTemperature("1", 36.789),
-                    )
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf(*mockTemperatures.toTypedArray()))
+                whenever(healthConnectManager.deleteBodyTemperature("1")).thenThrow(RuntimeException("Error"))
 
                 // When
-                viewModel.loadTemperatureHistory(start, end)
+                viewModel.deleteTemperatureReading("1")
                 advanceUntilIdle()
 
                 // Then
-                val history = viewModel.temperatureHistory.value
-                assertNotNull(history)
-                val formatted = history!![0].getFormattedCelsius()
-                assertTrue(formatted.contains("°C"))
-                assertTrue(formatted.matches(Regex("\\d+\\.\\d°C")))
+                assertFalse(viewModel.uiState.value.isLoading)
             }
     }
 
     @Nested
-    @DisplayName("Loading State Tests")
-    inner class LoadingStateTests {
+    @DisplayName("Time To First Content Tests")
+    inner class TimeToFirstContentTests {
         @Test
-        @DisplayName("Should set loading state during operation")
-        fun `should set loading state during operation`() =
+        @DisplayName("Should not measure before the list shows rows")
+        fun `should not measure before the list shows rows`() =
             runTest {
                 // Given
-                val start = Instant.now().minus(30, ChronoUnit.DAYS)
-                val end = Instant.now()
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf())
+                whenever(healthConnectManager.getBodyTemperatureChangesToken()).thenReturn("token-1")
 
                 // When
-                viewModel.loadTemperatureHistory(start, end)
+                showHistory()
 
-                // Then - loading should be true initially
-                // After advanceUntilIdle, it should be false
-                advanceUntilIdle()
-                assertFalse(viewModel.isLoading.value!!)
+                // Then
+                assertNull(viewModel.uiState.value.timeToFirstContent)
             }
 
         @Test
-        @DisplayName("Should clear loading state after error")
-        fun `should clear loading state after error`() =
+        @DisplayName("Should measure once when the list first shows rows")
+        fun `should measure once when the list first shows rows`() =
             runTest {
                 // Given
-                val start = Instant.now().minus(30, ChronoUnit.DAYS)
-                val end = Instant.now()
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenThrow(RuntimeException("Error"))
+                viewModel.showRecentHistory(Duration.ofDays(30))
 
                 // When
-                viewModel.loadTemperatureHistory(start, end)
-                advanceUntilIdle()
+                viewModel.onContentShown()
+                val measured = viewModel.uiState.value.timeToFirstContent
+                viewModel.onContentShown()
 
                 // Then
-                assertFalse(viewModel.isLoading.value!!)
+                assertNotNull(measured)
+                assertSame(measured, viewModel.uiState.value.timeToFirstContent)
             }
     }
 
     // Helper Methods
-    private fun createMockBodyTemperature(
-        id: String,
-        tempCelsius: Double,
-    ): BodyTemperature {
-        return BodyTemperature(
-            recordId = id,
-            temperature = androidx.health.connect.client.units.Temperature.celsius(tempCelsius),
-            time = Instant.now(),
-            zoneOffset = java.time.ZoneOffset.UTC,
-        )
+
+    /**
+     * Shows the history and collects it; returns the paging generations emitted, one per
+     * paging source, so a reload shows up as another element.
+     */
+    private suspend fun TestScope.showHistory(): List<PagingData<TemperatureReading>> {
+        val generations = mutableListOf<PagingData<TemperatureReading>>()
+        val shown = CompletableDeferred<Unit>()
+        viewModel.showRecentHistory(Duration.ofDays(30))
+        // Unconfined, so a reload is collected as soon as the paging source is invalidated
+        backgroundScope.launch(UnconfinedTestDispatcher(testScheduler)) {
+            viewModel.pagedHistory.collect {
+                generations.add(it)
+                shown.complete(Unit)
+            }
+        }
+        // The snapshot is read on the IO dispatcher, outside the test scheduler
+        shown.await()
+        advanceUntilIdle()
+        return generations
     }
 
-    private fun createMockBodyTemperatureWithTime(
+    private fun createMockBodyTemperature(
         id: String,
         tempCelsius: Double,
-        time: Instant,
     ): BodyTemperature {
         return BodyTemperature(
             recordId = id,
             temperature = androidx.health.connect.client.units.Temperature.celsius(tempCelsius),
-            time = time,
+            time = Instant.now(),
             zoneOffset = java.time.ZoneOffset.UTC,
         )
     }
@@ -1,13 +1,18 @@
 package com.example.healthconnectdemo.viewmodel
 
-import com.example.healthconnectdemo.healthconnect.BodyTemperature
+import com.example.healthconnectdemo.healthconnect.BodyTemperatureWrite
+import com.example.healthconnectdemo.healthconnect.BulkWriteResult
+import com.example.healthconnectdemo.healthconnect.ChunkWriteResult
 import com.example.healthconnectdemo.healthconnect.HealthConnectManager
+import com.example.healthconnectdemo.repository.TemperatureRepository
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
-import kotlinx.coroutines.flow.flowOf
 import kotlinx.coroutines.test.StandardTestDispatcher
 import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.currentTime
 import kotlinx.coroutines.test.resetMain
+import kotlinx.coroutines.test.runCurrent
 import kotlinx.coroutines.test.runTest
 import kotlinx.coroutines.test.setMain
 import org.junit.jupiter.api.*
@@ -18,10 +23,10 @@ import org.junit.jupiter.params.provider.ValueSource
 import org.mockito.Mock
 import org.mockito.junit.jupiter.MockitoExtension
 import org.mockito.kotlin.any
+import org.mockito.kotlin.argThat
 import org.mockito.kotlin.never
 import org.mockito.kotlin.verify
 import org.mockito.kotlin.whenever
-import java.time.Instant
 
 @ExperimentalCoroutinesApi
 @ExtendWith(MockitoExtension::class)
@@ -32,12 +37,15 @@ class MainViewModelTest {
     @Mock
     private lateinit var healthConnectManager: HealthConnectManager
 
+    private lateinit var repository: TemperatureRepository
     private lateinit var viewModel: MainViewModel
 
     @BeforeEach
     fun setup() {
         Dispatchers.setMain(testDispatcher)
-        viewModel = MainViewModel(healthConnectManager)
+        // A real repository over the mock, so reads and writes are verified on the manager
+        repository = TemperatureRepository(healthConnectManager)
+        viewModel = MainViewModel(healthConnectManager, repository, CoroutineScope(testDispatcher))
     }
 
     @AfterEach
@@ -120,17 +128,18 @@ class MainViewModelTest {
             runTest {
                 // Given
                 val validTemperature = 37.5
+                stubSuccessfulWrites()
 
                 // When
                 viewModel.recordTemperature(validTemperature)
                 advanceUntilIdle()
 
                 // Then
-                verify(healthConnectManager).writeBodyTemperature(
-                    temperature = validTemperature,
-                    time = any(),
+                verify(healthConnectManager).writeBodyTemperatures(
+                    argThat { single().temperature == validTemperature },
+                    any(),
                 )
-                val result = viewModel.temperatureRecorded.value
+                val result = viewModel.uiState.value.temperatureRecorded
                 assertNotNull(result)
                 assertTrue(result!!.isSuccess)
                 assertEquals("Temperature recorded: $validTemperature°C", result.getOrNull())
@@ -142,17 +151,18 @@ class MainViewModelTest {
             runTest {
                 // Given
                 val temperature = 38.0
+                stubSuccessfulWrites()
 
                 // When
                 viewModel.recordTemperature(temperature)
                 advanceUntilIdle()
 
                 // Then
-                verify(healthConnectManager).writeBodyTemperature(
-                    temperature = temperature,
-                    time = any(),
+                verify(healthConnectManager).writeBodyTemperatures(
+                    argThat { single().temperature == temperature },
+                    any(),
                 )
-                val result = viewModel.temperatureRecorded.value
+                val result = viewModel.uiState.value.temperatureRecorded
                 assertNotNull(result)
                 assertTrue(result!!.isSuccess)
             }
@@ -161,12 +171,15 @@ class MainViewModelTest {
         @ValueSource(doubles = [20.0, 45.0])
         fun `should record boundary temperatures`(temperature: Double) =
             runTest {
+                // Given
+                stubSuccessfulWrites()
+
                 // When
                 viewModel.recordTemperature(temperature)
                 advanceUntilIdle()
 
                 // Then
-                val result = viewModel.temperatureRecorded.value
+                val result = viewModel.uiState.value.temperatureRecorded
                 assertNotNull(result)
                 assertTrue(result!!.isSuccess)
             }
@@ -177,62 +190,53 @@ class MainViewModelTest {
             runTest {
                 // Given
                 val temperatures = listOf(36.5, 37.0, 37.5, 38.0)
+                stubSuccessfulWrites()
 
                 // When & Then
                 temperatures.forEach { temp ->
                     viewModel.recordTemperature(temp)
                     advanceUntilIdle()
 
-                    val result = viewModel.temperatureRecorded.value
+                    val result = viewModel.uiState.value.temperatureRecorded
                     assertNotNull(result)
                     assertTrue(result!!.isSuccess)
                 }
             }
-    }
 
-    @Nested
-    @DisplayName("Positive Permission Tests")
-    inner class PositivePermissionTests {
         @Test
-        @DisplayName("Should update status when permissions are granted")
-        fun `should update status when permissions are granted`() =
+        @DisplayName("Should write a lone reading without waiting for a batch")
+        fun `should write a lone reading without waiting for a batch`() =
             runTest {
                 // Given
-                whenever(healthConnectManager.hasAllPermissions()).thenReturn(true)
+                stubSuccessfulWrites()
 
                 // When
-                viewModel.checkPermissions()
-                advanceUntilIdle()
+                viewModel.recordTemperature(37.0)
+                runCurrent()
 
                 // Then
-                assertEquals(true, viewModel.permissionStatus.value)
+                assertEquals(0L, currentTime)
+                assertTrue(viewModel.uiState.value.temperatureRecorded!!.isSuccess)
+                assertEquals(1L, repository.revision.value)
             }
+    }
 
+    @Nested
+    @DisplayName("Positive Permission Tests")
+    inner class PositivePermissionTests {
         @Test
-        @DisplayName("Should load temperature history successfully")
-        fun `should load temperature history successfully`() =
+        @DisplayName("Should update status when permissions are granted")
+        fun `should update status when permissions are granted`() =
             runTest {
                 // Given
-                val start = Instant.now().minusSeconds(3600)
-                val end = Instant.now()
-                val mockTemperatures =
-                    listOf(
-                        createMockBodyTemperature("1", 36.5),
-                        createMockBodyTemperature("2", 37.0),
-                        createMockBodyTemperature("3", 37.5),
-                    )
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf(*mockTemperatures.toTypedArray()))
+                whenever(healthConnectManager.hasAllPermissions()).thenReturn(true)
 
                 // When
-                viewModel.loadTemperatureHistory(start, end)
+                viewModel.checkPermissions()
                 advanceUntilIdle()
 
                 // Then
-                val history = viewModel.temperatureHistory.value
-                assertNotNull(history)
-                assertEquals(3, history!!.size)
+                assertEquals(true, viewModel.uiState.value.permissionStatus)
             }
     }
 
@@ -309,8 +313,8 @@ class MainViewModelTest {
                 advanceUntilIdle()
 
                 // Then
-                verify(healthConnectManager, never()).writeBodyTemperature(any(), any())
-                val result = viewModel.temperatureRecorded.value
+                verify(healthConnectManager, never()).writeBodyTemperatures(any(), any())
+                val result = viewModel.uiState.value.temperatureRecorded
                 assertNotNull(result)
                 assertTrue(result!!.isFailure)
                 assertEquals(
@@ -330,8 +334,8 @@ class MainViewModelTest {
                 advanceUntilIdle()
 
                 // Then
-                verify(healthConnectManager, never()).writeBodyTemperature(any(), any())
-                val result = viewModel.temperatureRecorded.value
+                verify(healthConnectManager, never()).writeBodyTemperatures(any(), any())
+                val result = viewModel.uiState.value.temperatureRecorded
                 assertNotNull(result)
                 assertTrue(result!!.isFailure)
             }
@@ -343,7 +347,7 @@ class MainViewModelTest {
                 // Given
                 val validTemperature = 37.0
                 val errorMessage = "Failed to write to Health Connect"
-                whenever(healthConnectManager.writeBodyTemperature(any(), any()))
+                whenever(healthConnectManager.writeBodyTemperatures(any(), any()))
                     .thenThrow(RuntimeException(errorMessage))
 
                 // When
@@ -351,10 +355,10 @@ class MainViewModelTest {
                 advanceUntilIdle()
 
                 // Then
-                val result = viewModel.temperatureRecorded.value
+                val result = viewModel.uiState.value.temperatureRecorded
                 assertNotNull(result)
                 assertTrue(result!!.isFailure)
-                assertNotNull(viewModel.errorMessage.value)
+                assertNotNull(viewModel.uiState.value.errorMessage)
             }
 
         @Test
@@ -363,7 +367,7 @@ class MainViewModelTest {
             runTest {
                 // Given
                 val temperature = 37.5
-                whenever(healthConnectManager.writeBodyTemperature(any(), any()))
+                whenever(healthConnectManager.writeBodyTemperatures(any(), any()))
                     .thenThrow(RuntimeException("Network timeout"))
 
                 // When
@@ -371,7 +375,7 @@ class MainViewModelTest {
                 advanceUntilIdle()
 
                 // Then
-                val result = viewModel.temperatureRecorded.value
+                val result = viewModel.uiState.value.temperatureRecorded
                 assertNotNull(result)
                 assertTrue(result!!.isFailure)
             }
@@ -392,7 +396,7 @@ class MainViewModelTest {
                 advanceUntilIdle()
 
                 // Then
-                assertEquals(false, viewModel.permissionStatus.value)
+                assertEquals(false, viewModel.uiState.value.permissionStatus)
             }
 
         @Test
@@ -409,50 +413,8 @@ class MainViewModelTest {
                 advanceUntilIdle()
 
                 // Then
-                assertNotNull(viewModel.errorMessage.value)
-                assertTrue(viewModel.errorMessage.value!!.contains("Error checking permissions"))
-            }
-
-        @Test
-        @DisplayName("Should handle empty temperature history")
-        fun `should handle empty temperature history`() =
-            runTest {
-                // Given
-                val start = Instant.now().minusSeconds(3600)
-                val end = Instant.now()
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenReturn(flowOf())
-
-                // When
-                viewModel.loadTemperatureHistory(start, end)
-                advanceUntilIdle()
-
-                // Then
-                val history = viewModel.temperatureHistory.value
-                assertNotNull(history)
-                assertTrue(history!!.isEmpty())
-            }
-
-        @Test
-        @DisplayName("Should handle exception when loading history")
-        fun `should handle exception when loading history`() =
-            runTest {
-                // Given
-                val start = Instant.now().minusSeconds(3600)
-                val end = Instant.now()
-                val errorMessage = "Failed to load history"
-
-                whenever(healthConnectManager.readBodyTemperatures(start, end))
-                    .thenThrow(RuntimeException(errorMessage))
-
-                // When
-                viewModel.loadTemperatureHistory(start, end)
-                advanceUntilIdle()
-
-                // Then
-                assertNotNull(viewModel.errorMessage.value)
-                assertTrue(viewModel.errorMessage.value!!.contains("Error loading temperature history"))
+                assertNotNull(viewModel.uiState.value.errorMessage)
+                assertTrue(viewModel.uiState.value.errorMessage!!.contains("Error checking permissions"))
             }
     }
 
@@ -521,15 +483,12 @@ class MainViewModelTest {
 
     // ========== Helper Methods ==========
 
-    private fun createMockBodyTemperature(
-        id: String,
-        tempCelsius: Double,
-    ): BodyTemperature {
-        return BodyTemperature(
-            recordId = id,
-            temperature = androidx.health.connect.client.units.Temperature.celsius(tempCelsius),
-            time = Instant.now(),
-            zoneOffset = java.time.ZoneOffset.UTC,
-        )
+    private suspend fun stubSuccessfulWrites() {
+        whenever(healthConnectManager.writeBodyTemperatures(any(), any())).thenAnswer { invocation ->
+            val readings = invocation.getArgument<List<BodyTemperatureWrite>>(0)
+            BulkWriteResult(
+                listOf(ChunkWriteResult(0, readings, insertedIds = readings.indices.map { "record-$it" })),
+            )
+        }
     }
 }